@@ -0,0 +1,44 @@
+package marto.numberplaterecognition;
+
+import android.content.res.AssetManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+// Runs CharClassifierBenchmark on the app's training assets, the report goes to logcat:
+//   ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=marto.numberplaterecognition.CharClassifierBenchmarkTest
+//   adb logcat -s CharClassifierBenchmark
+@RunWith(AndroidJUnit4.class)
+public class CharClassifierBenchmarkTest {
+    private static final int FOLDS = 5;
+
+    @Test
+    public void compareBackends() throws IOException {
+        // needs the OpenCV native library packaged with the app
+        assumeTrue(OpenCVLoader.initDebug());
+
+        AssetManager assets = InstrumentationRegistry.getTargetContext().getAssets();
+        CharTrainingData data;
+        try (InputStream classifications = assets.open("classifications.txt");
+             InputStream images = assets.open("images.txt")) {
+            data = CharTrainingData.load(classifications, images);
+        }
+
+        String strReport = CharClassifierBenchmark.compareAll(data, FOLDS);
+        for (String strLine : strReport.split("\n"))
+            Log.i("CharClassifierBenchmark", strLine);
+
+        assertTrue(strReport.contains("KNN "));
+        assertTrue(strReport.contains("HOG+SVM"));
+    }
+}
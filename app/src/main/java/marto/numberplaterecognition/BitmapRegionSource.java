@@ -0,0 +1,50 @@
+package marto.numberplaterecognition;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+// RegionSource over an encoded image on Android, only the requested regions are ever decoded
+class BitmapRegionSource implements RegionSource, Closeable {
+    private final BitmapRegionDecoder regionDecoder;
+
+    BitmapRegionSource(InputStream image) throws IOException {
+        regionDecoder = BitmapRegionDecoder.newInstance(image, false);
+    }
+
+    @Override
+    public Size getFullSize() {
+        return new Size(regionDecoder.getWidth(), regionDecoder.getHeight());
+    }
+
+    @Override
+    public synchronized Mat decodeRegion(Rect rect) {
+        BitmapFactory.Options bmpFactoryOptions = new BitmapFactory.Options();
+        bmpFactoryOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap bmp = regionDecoder.decodeRegion(new android.graphics.Rect(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height), bmpFactoryOptions);
+        Mat src = new Mat();
+        Utils.bitmapToMat(bmp, src);
+        bmp.recycle();
+
+        // same conversion as for the downscaled image
+        Mat imgRegion = new Mat();
+        Imgproc.cvtColor(src, imgRegion, Imgproc.COLOR_BGRA2BGR);
+        return imgRegion;
+    }
+
+    @Override
+    public void close() throws IOException {
+        regionDecoder.recycle();
+    }
+}
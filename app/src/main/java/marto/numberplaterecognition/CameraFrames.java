@@ -0,0 +1,46 @@
+package marto.numberplaterecognition;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+class CameraFrames {
+
+    // Y plane of the NV21 preview buffer, rgba() would do a full colour conversion per frame
+    static Mat luminance(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        return frame.gray();
+    }
+
+    // Y plane of a YUV_420_888 image. Wrapped without copying when its rows aren't padded, valid
+    // until the image is closed. Padded rows are copied, a colRange over the padded buffer would let
+    // filters read the padding, and the last row's padding may be missing from the buffer.
+    static Mat luminance(Image image) {
+        if (image.getFormat() != ImageFormat.YUV_420_888)
+            throw new IllegalArgumentException("Unsupported image format: " + image.getFormat());
+
+        Image.Plane yPlane = image.getPlanes()[0];
+        ByteBuffer buffer = yPlane.getBuffer().duplicate();
+        int intWidth = image.getWidth();
+        int intHeight = image.getHeight();
+        int intRowStride = yPlane.getRowStride();
+
+        // the Mat wraps the buffer from its start, whatever its position
+        if (intRowStride == intWidth && buffer.position() == 0 && buffer.remaining() >= intWidth * intHeight)
+            return new Mat(intHeight, intWidth, CvType.CV_8UC1, buffer);
+
+        byte[] pixels = new byte[intWidth * intHeight];
+        int intStart = buffer.position();
+        for (int y = 0; y < intHeight; y++) {
+            buffer.position(intStart + y * intRowStride);
+            buffer.get(pixels, y * intWidth, intWidth);
+        }
+        Mat imgY = new Mat(intHeight, intWidth, CvType.CV_8UC1);
+        imgY.put(0, 0, pixels);
+        return imgY;
+    }
+}
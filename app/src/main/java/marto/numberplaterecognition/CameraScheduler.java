@@ -0,0 +1,282 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Shares a fixed pool of recognition workers between many cameras. Only the latest frame of each
+// camera waits, an older pending frame is dropped when a new one arrives, so a camera never
+// falls behind by more than one frame. Cameras take turns by weighted fair queuing: every
+// recognized frame advances the camera's virtual time by 1 / weight, and the waiting camera with
+// the lowest virtual time goes next. A busy camera can't starve a quiet one, and a camera coming
+// back after being idle can't catch up on the turns it missed.
+// A submitted frame belongs to the scheduler, which releases it when it is dropped or fails. A
+// recognized frame is handed over to the listener, which releases it when done with it.
+class CameraScheduler implements Closeable {
+
+    interface RecognizerFactory {
+        // one per worker, PlateRecognizer isn't shared between threads
+        PlateRecognizer create();
+    }
+
+    interface Listener {
+        // On a worker thread, imgFrame is the listener's to release
+        void onRecognized(String strCameraId, Mat imgFrame, List<PossiblePlate> possiblePlates, long lngLagNanos);
+    }
+
+    static class CameraStats {
+        private final String strCameraId;
+        private final int intWeight;
+        private long lngSubmitted;
+        private long lngRecognized;
+        private long lngFailed;
+        private long lngDropped;
+        private long lngLastLagNanos;
+        private long lngMaxLagNanos;
+        private long lngTotalLagNanos;
+
+        private CameraStats(String strCameraId, int intWeight) {
+            this.strCameraId = strCameraId;
+            this.intWeight = intWeight;
+        }
+
+        String getCameraId() {
+            return strCameraId;
+        }
+
+        int getWeight() {
+            return intWeight;
+        }
+
+        long getSubmitted() {
+            return lngSubmitted;
+        }
+
+        long getRecognized() {
+            return lngRecognized;
+        }
+
+        // Frames whose recognition threw, they're released and not passed to the listener
+        long getFailed() {
+            return lngFailed;
+        }
+
+        // Frames replaced by a newer one before a worker got to them, they're released
+        long getDropped() {
+            return lngDropped;
+        }
+
+        // From capture to the end of recognition
+        double getLastLagMillis() {
+            return lngLastLagNanos / 1e6;
+        }
+
+        double getMaxLagMillis() {
+            return lngMaxLagNanos / 1e6;
+        }
+
+        double getMeanLagMillis() {
+            return lngRecognized == 0 ? 0.0 : lngTotalLagNanos / 1e6 / lngRecognized;
+        }
+    }
+
+    private static class Camera {
+        private final CameraStats stats;
+        private double dblVirtualTime;
+        private Mat imgPending;
+        private long lngPendingCaptureNanos;
+        // at most one frame per camera is recognized at a time, so its results stay in order
+        private boolean inFlight;
+
+        private Camera(String strCameraId, int intWeight) {
+            stats = new CameraStats(strCameraId, intWeight);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(CameraScheduler.class.getName());
+
+    private final Map<String, Camera> mapOfCameras = new LinkedHashMap<>();
+    private final List<Thread> listOfWorkers = new ArrayList<>();
+    private final Listener listener;
+    // virtual time of the last dispatched frame
+    private double dblVirtualTime;
+    private boolean closed;
+
+    CameraScheduler(int intWorkers, final RecognizerFactory recognizerFactory, Listener listener) {
+        this.listener = listener;
+
+        for (int i = 0; i < intWorkers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workLoop(recognizerFactory.create());
+                }
+            }, "CameraScheduler-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            listOfWorkers.add(worker);
+        }
+    }
+
+    // Higher weight gets proportionally more of the workers when cameras compete
+    synchronized void addCamera(String strCameraId, int intWeight) {
+        if (intWeight < 1)
+            throw new IllegalArgumentException("Weight must be positive: " + intWeight);
+        if (mapOfCameras.containsKey(strCameraId))
+            throw new IllegalArgumentException("Camera already added: " + strCameraId);
+
+        Camera camera = new Camera(strCameraId, intWeight);
+        camera.dblVirtualTime = dblVirtualTime;
+        mapOfCameras.put(strCameraId, camera);
+    }
+
+    // Never blocks the camera, lngCaptureNanos is System.nanoTime() of the capture
+    synchronized void submit(String strCameraId, Mat imgFrame, long lngCaptureNanos) {
+        Camera camera = mapOfCameras.get(strCameraId);
+        if (camera == null)
+            throw new IllegalArgumentException("Unknown camera: " + strCameraId);
+        if (closed) {
+            imgFrame.release();
+            return;
+        }
+
+        camera.stats.lngSubmitted++;
+        if (camera.imgPending != null) {
+            camera.imgPending.release();
+            camera.stats.lngDropped++;
+        } else if (!camera.inFlight)
+            // No credit for the time it was idle
+            camera.dblVirtualTime = Math.max(camera.dblVirtualTime, dblVirtualTime);
+
+        camera.imgPending = imgFrame;
+        camera.lngPendingCaptureNanos = lngCaptureNanos;
+        notify();
+    }
+
+    private void workLoop(PlateRecognizer plateRecognizer) {
+        while (true) {
+            Camera camera;
+            Mat imgFrame;
+            long lngCaptureNanos;
+            synchronized (this) {
+                camera = nextCamera();
+                while (camera == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    camera = nextCamera();
+                }
+                if (camera == null)
+                    return;
+
+                imgFrame = camera.imgPending;
+                lngCaptureNanos = camera.lngPendingCaptureNanos;
+                camera.imgPending = null;
+                camera.inFlight = true;
+                dblVirtualTime = camera.dblVirtualTime;
+                camera.dblVirtualTime += 1.0 / camera.stats.intWeight;
+            }
+
+            List<PossiblePlate> possiblePlates = null;
+            try {
+                possiblePlates = plateRecognizer.recognize(imgFrame, camera.stats.strCameraId);
+            } catch (RuntimeException e) {
+                // the worker stays in the pool, only this frame is lost
+                LOGGER.log(Level.SEVERE, "Recognition failed on camera " + camera.stats.strCameraId, e);
+                imgFrame.release();
+            }
+
+            long lngLagNanos = System.nanoTime() - lngCaptureNanos;
+            synchronized (this) {
+                camera.inFlight = false;
+                if (possiblePlates != null) {
+                    camera.stats.lngRecognized++;
+                    camera.stats.lngLastLagNanos = lngLagNanos;
+                    camera.stats.lngTotalLagNanos += lngLagNanos;
+                    camera.stats.lngMaxLagNanos = Math.max(camera.stats.lngMaxLagNanos, lngLagNanos);
+                } else {
+                    camera.stats.lngFailed++;
+                }
+                // its next frame may already be waiting
+                notify();
+            }
+            if (possiblePlates == null)
+                continue;
+
+            try {
+                listener.onRecognized(camera.stats.strCameraId, imgFrame, possiblePlates, lngLagNanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Listener failed on camera " + camera.stats.strCameraId, e);
+            }
+        }
+    }
+
+    // Waiting camera with the lowest virtual time, null if none
+    private Camera nextCamera() {
+        Camera next = null;
+        for (Camera camera : mapOfCameras.values()) {
+            if (camera.imgPending == null || camera.inFlight)
+                continue;
+            if (next == null || camera.dblVirtualTime < next.dblVirtualTime)
+                next = camera;
+        }
+        return next;
+    }
+
+    // Snapshot of the counters of every camera
+    synchronized List<CameraStats> getStats() {
+        List<CameraStats> listOfStats = new ArrayList<>();
+        for (Camera camera : mapOfCameras.values()) {
+            CameraStats stats = new CameraStats(camera.stats.strCameraId, camera.stats.intWeight);
+            stats.lngSubmitted = camera.stats.lngSubmitted;
+            stats.lngRecognized = camera.stats.lngRecognized;
+            stats.lngFailed = camera.stats.lngFailed;
+            stats.lngDropped = camera.stats.lngDropped;
+            stats.lngLastLagNanos = camera.stats.lngLastLagNanos;
+            stats.lngMaxLagNanos = camera.stats.lngMaxLagNanos;
+            stats.lngTotalLagNanos = camera.stats.lngTotalLagNanos;
+            listOfStats.add(stats);
+        }
+        return listOfStats;
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        for (CameraStats stats : getStats()) {
+            report.append(String.format(Locale.US, "%-12s w=%d submitted=%d recognized=%d failed=%d dropped=%d lag last=%.1fms mean=%.1fms max=%.1fms%n",
+                    stats.getCameraId(), stats.getWeight(), stats.getSubmitted(), stats.getRecognized(), stats.getFailed(), stats.getDropped(),
+                    stats.getLastLagMillis(), stats.getMeanLagMillis(), stats.getMaxLagMillis()));
+        }
+        return report.toString();
+    }
+
+    // Pending frames are dropped and released, frames being recognized finish
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            for (Camera camera : mapOfCameras.values()) {
+                if (camera.imgPending != null)
+                    camera.imgPending.release();
+                camera.imgPending = null;
+            }
+            notifyAll();
+        }
+        try {
+            for (Thread worker : listOfWorkers)
+                worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+
+import java.util.List;
+
+// Classifies glyphs, the thresholded 20x30 CV_8UC1 char images of a plate
+interface CharClassifier {
+
+    Result classify(Mat imgGlyph);
+
+    // One call for many glyphs, results in the same order
+    List<Result> classifyAll(List<Mat> listOfGlyphs);
+
+    class Result {
+        private final char chr;
+        // 0 to 1, how sure the classifier is about the char
+        private final float fltConfidence;
+
+        Result(char chr, float fltConfidence) {
+            this.chr = chr;
+            this.fltConfidence = fltConfidence;
+        }
+
+        char getChr() {
+            return chr;
+        }
+
+        float getConfidence() {
+            return fltConfidence;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Trains classifier backends on part of the training glyphs and compares accuracy and speed on the rest.
+// On a device it runs as the instrumented test CharClassifierBenchmarkTest on the app's assets. On a
+// plain JVM with the OpenCV 3.4 Java bindings, from the project directory:
+//   javac -d build/benchmark -cp <opencv-343.jar> -sourcepath app/src/main/java app/src/main/java/marto/numberplaterecognition/CharClassifierBenchmark.java
+//   java -Djava.library.path=<dir of libopencv_java343> -cp build/benchmark:<opencv-343.jar> marto.numberplaterecognition.CharClassifierBenchmark app/src/main/assets/classifications.txt app/src/main/assets/images.txt [folds]
+class CharClassifierBenchmark {
+    private static final int DEFAULT_FOLDS = 5;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    interface Trainer {
+        String getName();
+
+        CharClassifier train(CharTrainingData trainingData);
+    }
+
+    static final Trainer KNN = new Trainer() {
+        @Override
+        public String getName() {
+            return "KNN";
+        }
+
+        @Override
+        public CharClassifier train(CharTrainingData trainingData) {
+            return KnnCharClassifier.train(trainingData);
+        }
+    };
+
+    static final Trainer HOG_SVM = new Trainer() {
+        @Override
+        public String getName() {
+            return "HOG+SVM";
+        }
+
+        @Override
+        public CharClassifier train(CharTrainingData trainingData) {
+            return HogSvmCharClassifier.train(trainingData);
+        }
+    };
+
+    static final Trainer QUANTIZED_KNN = new Trainer() {
+        @Override
+        public String getName() {
+            return "KNN-8U";
+        }
+
+        @Override
+        public CharClassifier train(CharTrainingData trainingData) {
+            return QuantizedKnnCharClassifier.train(trainingData);
+        }
+    };
+
+    // e.g. compare(data, 5, KNN, pcaKnn(40), pcaKnn(50), pcaKnn(60)) for the accuracy/speed trade-off
+    static Trainer pcaKnn(final int intComponents) {
+        return new Trainer() {
+            @Override
+            public String getName() {
+                return "PCA-KNN-" + intComponents;
+            }
+
+            @Override
+            public CharClassifier train(CharTrainingData trainingData) {
+                return PcaKnnCharClassifier.train(trainingData, intComponents);
+            }
+        };
+    }
+
+    // k-fold cross validation, every k-th glyph is held out in turn
+    static String compare(CharTrainingData data, int intFolds, Trainer... trainers) {
+        StringBuilder report = new StringBuilder();
+
+        for (Trainer trainer : trainers) {
+            int intCorrect = 0;
+            int intTested = 0;
+            long lngTrainNanos = 0;
+            long lngClassifyNanos = 0;
+
+            for (int intFold = 0; intFold < intFolds; intFold++) {
+                List<Integer> listOfTrain = new ArrayList<>();
+                List<Integer> listOfTest = new ArrayList<>();
+                for (int i = 0; i < data.size(); i++) {
+                    if (i % intFolds == intFold)
+                        listOfTest.add(i);
+                    else
+                        listOfTrain.add(i);
+                }
+
+                long lngStart = System.nanoTime();
+                CharClassifier classifier = trainer.train(data.subset(listOfTrain));
+                lngTrainNanos += System.nanoTime() - lngStart;
+
+                for (int intIndex : listOfTest) {
+                    lngStart = System.nanoTime();
+                    CharClassifier.Result result = classifier.classify(data.getGlyph(intIndex));
+                    lngClassifyNanos += System.nanoTime() - lngStart;
+
+                    if (result.getChr() == data.getLabel(intIndex))
+                        intCorrect++;
+                    intTested++;
+                }
+            }
+
+            report.append(String.format(Locale.US, "%-10s accuracy=%.1f%% train=%.1fms classify=%.1fus/glyph%n",
+                    trainer.getName(), 100.0 * intCorrect / intTested, lngTrainNanos / 1e6 / intFolds,
+                    lngClassifyNanos / 1e3 / intTested));
+        }
+
+        return report.toString();
+    }
+
+    // Steady state throughput of every backend on all training glyphs, after a warm-up, and how
+    // many glyphs each backend reads differently from the first one
+    static String compareThroughput(CharTrainingData data, int intWarmupRounds, int intRounds, Trainer... trainers) {
+        StringBuilder report = new StringBuilder();
+
+        List<Mat> listOfGlyphs = new ArrayList<>();
+        for (int i = 0; i < data.size(); i++)
+            listOfGlyphs.add(data.getGlyph(i));
+
+        List<CharClassifier.Result> listOfReference = null;
+        for (Trainer trainer : trainers) {
+            CharClassifier classifier = trainer.train(data);
+
+            for (int intRound = 0; intRound < intWarmupRounds; intRound++)
+                classifyOneByOne(classifier, listOfGlyphs);
+
+            long lngStart = System.nanoTime();
+            List<CharClassifier.Result> listOfResults = null;
+            for (int intRound = 0; intRound < intRounds; intRound++)
+                listOfResults = classifyOneByOne(classifier, listOfGlyphs);
+            double dblNanosPerGlyph = (System.nanoTime() - lngStart) / (double) intRounds / listOfGlyphs.size();
+
+            if (listOfReference == null)
+                listOfReference = listOfResults;
+            int intDisagreements = 0;
+            for (int i = 0; i < listOfGlyphs.size(); i++) {
+                if (listOfResults.get(i).getChr() != listOfReference.get(i).getChr())
+                    intDisagreements++;
+            }
+
+            report.append(String.format(Locale.US, "%-10s %.0f glyphs/s %.1fus/glyph disagreements=%d%n",
+                    trainer.getName(), 1e9 / dblNanosPerGlyph, dblNanosPerGlyph / 1e3, intDisagreements));
+        }
+
+        return report.toString();
+    }
+
+    // Every backend against KNN, cross validated and then on throughput
+    static String compareAll(CharTrainingData data, int intFolds) {
+        return compare(data, intFolds, KNN, QUANTIZED_KNN, pcaKnn(48), HOG_SVM)
+                + compareThroughput(data, WARMUP_ROUNDS, ROUNDS, KNN, QUANTIZED_KNN, pcaKnn(48), HOG_SVM);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CharClassifierBenchmark <classifications.txt> <images.txt> [folds]");
+            System.exit(2);
+        }
+        int intFolds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FOLDS;
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        CharTrainingData data;
+        try (FileInputStream classifications = new FileInputStream(args[0]);
+             FileInputStream images = new FileInputStream(args[1])) {
+            data = CharTrainingData.load(classifications, images);
+        }
+        System.out.print(compareAll(data, intFolds));
+    }
+
+    private static List<CharClassifier.Result> classifyOneByOne(CharClassifier classifier, List<Mat> listOfGlyphs) {
+        List<CharClassifier.Result> listOfResults = new ArrayList<>(listOfGlyphs.size());
+        for (Mat imgGlyph : listOfGlyphs)
+            listOfResults.add(classifier.classify(imgGlyph));
+        return listOfResults;
+    }
+}
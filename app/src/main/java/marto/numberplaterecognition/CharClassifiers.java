@@ -0,0 +1,72 @@
+package marto.numberplaterecognition;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Process-wide char classifier. It is built once on a background thread, and recognition waits
+// for it only if it is not ready yet.
+final class CharClassifiers {
+    private static FutureTask<CharClassifier> futureClassifier;
+
+    private CharClassifiers() {
+    }
+
+    // Starts building the classifier, later calls return the same future
+    static synchronized Future<CharClassifier> initialize(Callable<CharClassifier> loader) {
+        if (futureClassifier == null) {
+            futureClassifier = new FutureTask<>(loader);
+            Thread thread = new Thread(futureClassifier, "CharClassifierInit");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return futureClassifier;
+    }
+
+    // Replaces the classifier right away, e.g. for benchmarks and offline evaluation
+    static synchronized void set(CharClassifier charClassifier) {
+        futureClassifier = readyFuture(charClassifier);
+    }
+
+    static synchronized boolean isReady() {
+        return futureClassifier != null && futureClassifier.isDone();
+    }
+
+    // Blocks until the classifier is built
+    static CharClassifier get() {
+        Future<CharClassifier> future;
+        synchronized (CharClassifiers.class) {
+            future = futureClassifier;
+        }
+        if (future == null)
+            throw new IllegalStateException("Char classifier was not initialized");
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Char classifier failed to load", e.getCause());
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static FutureTask<CharClassifier> readyFuture(final CharClassifier charClassifier) {
+        FutureTask<CharClassifier> future = new FutureTask<>(new Callable<CharClassifier>() {
+            @Override
+            public CharClassifier call() {
+                return charClassifier;
+            }
+        });
+        future.run();
+        return future;
+    }
+}
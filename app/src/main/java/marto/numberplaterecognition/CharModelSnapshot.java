@@ -0,0 +1,115 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Parsed training glyphs cached in app storage, so later starts skip parsing images.txt.
+// Layout: magic, format version, asset hash, APK stamp, count, count labels, count x 600 pixels.
+// The training pixels are whole numbers 0..255 and are stored as one byte each.
+final class CharModelSnapshot {
+    private static final int MAGIC = 0x43485253; // "CHRS"
+    private static final int FORMAT_VERSION = 1;
+
+    private CharModelSnapshot() {
+    }
+
+    // Snapshot written by the same APK install, the assets can't have changed since
+    static CharTrainingData readIfStamp(File file, long lngApkStamp) {
+        return read(file, 0, lngApkStamp);
+    }
+
+    // Snapshot of the same assets, e.g. after an app update that didn't touch them
+    static CharTrainingData readIfAssetHash(File file, long lngAssetHash) {
+        return read(file, lngAssetHash, 0);
+    }
+
+    // Returns null when the snapshot is missing, damaged or of other assets
+    private static CharTrainingData read(File file, long lngAssetHash, long lngApkStamp) {
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+            long lngSnapshotAssetHash = in.readLong();
+            long lngSnapshotApkStamp = in.readLong();
+            if (lngAssetHash != 0 && lngAssetHash != lngSnapshotAssetHash)
+                return null;
+            if (lngApkStamp != 0 && lngApkStamp != lngSnapshotApkStamp)
+                return null;
+
+            int intCount = in.readInt();
+            if (intCount <= 0 || in.readInt() != CharTrainingData.GLYPH_SIZE)
+                return null;
+
+            float[] labels = new float[intCount];
+            for (int i = 0; i < intCount; i++)
+                labels[i] = in.readChar();
+
+            byte[] pixels = new byte[intCount * CharTrainingData.GLYPH_SIZE];
+            in.readFully(pixels);
+
+            Mat matLabels = new Mat(intCount, 1, CvType.CV_32F);
+            matLabels.put(0, 0, labels);
+
+            Mat matPixels = new Mat(intCount, CharTrainingData.GLYPH_SIZE, CvType.CV_8U);
+            matPixels.put(0, 0, pixels);
+            Mat matSamples = new Mat();
+            matPixels.convertTo(matSamples, CvType.CV_32F);
+
+            return new CharTrainingData(matSamples, matLabels);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Written to a temp file first, a crash midway leaves the old snapshot or none
+    static void write(File file, CharTrainingData trainingData, long lngAssetHash, long lngApkStamp) throws IOException {
+        int intCount = trainingData.size();
+
+        Mat matPixels = new Mat();
+        trainingData.getSamples().convertTo(matPixels, CvType.CV_8U);
+        byte[] pixels = new byte[intCount * CharTrainingData.GLYPH_SIZE];
+        matPixels.get(0, 0, pixels);
+
+        File fileTemp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileTemp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(lngAssetHash);
+            out.writeLong(lngApkStamp);
+            out.writeInt(intCount);
+            out.writeInt(CharTrainingData.GLYPH_SIZE);
+            for (int i = 0; i < intCount; i++)
+                out.writeChar(trainingData.getLabel(i));
+            out.write(pixels);
+        }
+
+        if (!fileTemp.renameTo(file))
+            throw new IOException("Can't replace " + file);
+    }
+
+    // 64-bit FNV-1a over the raw asset bytes, never 0
+    static long hash(byte[]... assets) {
+        long lngHash = 0xcbf29ce484222325L;
+        for (byte[] asset : assets) {
+            for (byte b : asset) {
+                lngHash ^= b & 0xff;
+                lngHash *= 0x100000001b3L;
+            }
+            // separator, so moving bytes between assets changes the hash
+            lngHash ^= 0xff;
+            lngHash *= 0x100000001b3L;
+        }
+        return lngHash == 0 ? 1 : lngHash;
+    }
+}
@@ -0,0 +1,98 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Labelled glyphs from classifications.txt and images.txt, one flattened 20x30 glyph per row
+class CharTrainingData {
+    static final int GLYPH_WIDTH = 20;
+    static final int GLYPH_HEIGHT = 30;
+    static final int GLYPH_SIZE = GLYPH_WIDTH * GLYPH_HEIGHT;
+
+    private final Mat matSamples;
+    private final Mat matLabels;
+
+    CharTrainingData(Mat matSamples, Mat matLabels) {
+        this.matSamples = matSamples;
+        this.matLabels = matLabels;
+    }
+
+    static CharTrainingData load(InputStream classifications, InputStream images) throws IOException {
+        // read in training classifications
+        List<Integer> labels = new ArrayList<>();
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(classifications, "UTF-8"));
+        String line = bufferedReader.readLine();
+        while (line != null) {
+            if (!line.trim().isEmpty())
+                labels.add(Integer.valueOf(line.trim()));
+            line = bufferedReader.readLine();
+        }
+
+        // read in training images, all glyphs in one float array
+        float[] values = new float[labels.size() * GLYPH_SIZE];
+        int k = 0;
+        bufferedReader = new BufferedReader(new InputStreamReader(images, "UTF-8"));
+        line = bufferedReader.readLine();
+        while (line != null) {
+            for (String s : line.split(" ")) {
+                if (!s.isEmpty())
+                    values[k++] = Float.parseFloat(s);
+            }
+            line = bufferedReader.readLine();
+        }
+        if (k != values.length)
+            throw new IOException("Expected " + values.length + " training values, found " + k);
+
+        Mat matClassifications = new Mat(labels.size(), 1, CvType.CV_32F);
+        for (int i = 0; i < labels.size(); i++)
+            matClassifications.put(i, 0, labels.get(i));
+
+        Mat matTrainingImagesAsFlattenedFloats = new Mat(labels.size(), GLYPH_SIZE, CvType.CV_32F);
+        matTrainingImagesAsFlattenedFloats.put(0, 0, values);
+
+        return new CharTrainingData(matTrainingImagesAsFlattenedFloats, matClassifications);
+    }
+
+    int size() {
+        return matSamples.rows();
+    }
+
+    // N x 600 CV_32F
+    Mat getSamples() {
+        return matSamples;
+    }
+
+    // N x 1 CV_32F char codes
+    Mat getLabels() {
+        return matLabels;
+    }
+
+    char getLabel(int intIndex) {
+        return (char) (int) matLabels.get(intIndex, 0)[0];
+    }
+
+    // 30x20 CV_8UC1, the same form DetectChars passes to a classifier
+    Mat getGlyph(int intIndex) {
+        Mat imgGlyph = new Mat();
+        matSamples.row(intIndex).reshape(1, GLYPH_HEIGHT).convertTo(imgGlyph, CvType.CV_8UC1);
+        return imgGlyph;
+    }
+
+    CharTrainingData subset(List<Integer> listOfIndexes) {
+        Mat matSubsetSamples = new Mat(listOfIndexes.size(), GLYPH_SIZE, CvType.CV_32F);
+        Mat matSubsetLabels = new Mat(listOfIndexes.size(), 1, CvType.CV_32F);
+
+        for (int i = 0; i < listOfIndexes.size(); i++) {
+            matSamples.row(listOfIndexes.get(i)).copyTo(matSubsetSamples.row(i));
+            matLabels.row(listOfIndexes.get(i)).copyTo(matSubsetLabels.row(i));
+        }
+        return new CharTrainingData(matSubsetSamples, matSubsetLabels);
+    }
+}
@@ -0,0 +1,290 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Runs two recognizer configurations over a labelled corpus and reports accuracy and speed side by
+// side, plus every image the two read differently. A configuration is a recognizer config and a
+// char classifier, e.g. fast:hog-svm, the classifier defaults to knn. A corpus is a directory of
+// .jpg/.png images, each with a sidecar <image name>.txt holding its plate text, empty for images
+// without a plate. Both configurations get an untimed pass over the corpus first, so neither is
+// timed on a cold JIT and cold OpenCV caches. No Android classes are involved, it runs headless
+// on a plain JVM with the OpenCV 3.4 Java bindings, from the project directory:
+//   javac -d build/evaluator -cp <opencv-343.jar> -sourcepath app/src/main/java app/src/main/java/marto/numberplaterecognition/CorpusEvaluator.java
+//   java -Djava.library.path=<dir of libopencv_java343> -cp build/evaluator:<opencv-343.jar> marto.numberplaterecognition.CorpusEvaluator <corpus dir> app/src/main/assets/classifications.txt app/src/main/assets/images.txt [config A] [config B]
+class CorpusEvaluator {
+
+    interface Config {
+        void configure(PlateRecognizer plateRecognizer);
+    }
+
+    static final Map<String, Config> CONFIGS = new LinkedHashMap<>();
+    static final Map<String, CharClassifierBenchmark.Trainer> CLASSIFIERS = new LinkedHashMap<>();
+    private static final String DEFAULT_CLASSIFIER = "knn";
+
+    static {
+        CLASSIFIERS.put("knn", CharClassifierBenchmark.KNN);
+        CLASSIFIERS.put("knn-8u", CharClassifierBenchmark.QUANTIZED_KNN);
+        CLASSIFIERS.put("pca-knn", CharClassifierBenchmark.pcaKnn(48));
+        CLASSIFIERS.put("hog-svm", CharClassifierBenchmark.HOG_SVM);
+
+        CONFIGS.put("baseline", new Config() {
+            @Override
+            public void configure(PlateRecognizer plateRecognizer) {
+            }
+        });
+        CONFIGS.put("pyramid", new Config() {
+            @Override
+            public void configure(PlateRecognizer plateRecognizer) {
+                plateRecognizer.setPyramidLevels(1);
+            }
+        });
+        CONFIGS.put("pruned", new Config() {
+            @Override
+            public void configure(PlateRecognizer plateRecognizer) {
+                plateRecognizer.setCandidateSelection(3, 0.3);
+            }
+        });
+        CONFIGS.put("native-segmentation", new Config() {
+            @Override
+            public void configure(PlateRecognizer plateRecognizer) {
+                plateRecognizer.setNativeResolutionSegmentation(true);
+            }
+        });
+        CONFIGS.put("fast", new Config() {
+            @Override
+            public void configure(PlateRecognizer plateRecognizer) {
+                plateRecognizer.setPyramidLevels(1);
+                plateRecognizer.setCandidateSelection(3, 0.3);
+                plateRecognizer.setNativeResolutionSegmentation(true);
+            }
+        });
+    }
+
+    static class Sample {
+        private final String strName;
+        private final Mat imgScene;
+        private final String strTruth;
+
+        Sample(String strName, Mat imgScene, String strTruth) {
+            this.strName = strName;
+            this.imgScene = imgScene;
+            this.strTruth = strTruth;
+        }
+    }
+
+    static class Evaluation {
+        private final String strConfig;
+        private final List<String> listOfReads = new ArrayList<>();
+        private int intExactMatches;
+        private long lngCharEdits;
+        private long lngTruthChars;
+        private long lngTotalNanos;
+        // ms per image spent in each PipelineMetrics stage
+        private final double[] stageMillisPerImage = new double[PipelineMetrics.Stage.values().length];
+        private final long[] counters = new long[PipelineMetrics.Counter.values().length];
+
+        private Evaluation(String strConfig) {
+            this.strConfig = strConfig;
+        }
+
+        double getExactMatchRate() {
+            return listOfReads.isEmpty() ? 0.0 : (double) intExactMatches / listOfReads.size();
+        }
+
+        // Edit distance of the reads over the length of the ground truth
+        double getCharErrorRate() {
+            return (double) lngCharEdits / Math.max(1, lngTruthChars);
+        }
+
+        double getImagesPerSecond() {
+            return lngTotalNanos == 0 ? 0.0 : listOfReads.size() * 1e9 / lngTotalNanos;
+        }
+    }
+
+    static List<Sample> loadCorpus(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Can't list " + directory);
+        Arrays.sort(files);
+
+        List<Sample> listOfSamples = new ArrayList<>();
+        for (File file : files) {
+            String strName = file.getName().toLowerCase(Locale.US);
+            if (!strName.endsWith(".jpg") && !strName.endsWith(".jpeg") && !strName.endsWith(".png"))
+                continue;
+
+            File fileTruth = new File(file.getPath().substring(0, file.getPath().lastIndexOf('.')) + ".txt");
+            if (!fileTruth.isFile())
+                continue;
+
+            Mat imgScene = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_COLOR);
+            if (imgScene.empty())
+                throw new IOException("Can't decode " + file);
+
+            String strTruth = new String(Files.readAllBytes(fileTruth.toPath()), Charset.forName("UTF-8"));
+            listOfSamples.add(new Sample(file.getName(), imgScene, normalize(strTruth)));
+        }
+        return listOfSamples;
+    }
+
+    // Plate text without spaces or dashes, upper case
+    private static String normalize(String strPlate) {
+        return strPlate.trim().toUpperCase(Locale.US).replaceAll("[\\s-]", "");
+    }
+
+    // The read is the plate the app would show, the first of the recognized plates, which has the
+    // most chars. The classifier is trained before the clock starts.
+    static Evaluation evaluate(String strConfig, Config config, CharClassifier charClassifier, List<Sample> listOfSamples) {
+        CharClassifiers.set(charClassifier);
+        PlateRecognizer plateRecognizer = new PlateRecognizer();
+        config.configure(plateRecognizer);
+        Evaluation evaluation = new Evaluation(strConfig);
+
+        PipelineMetrics.setEnabled(true);
+        PipelineMetrics.reset();
+        for (Sample sample : listOfSamples) {
+            long lngStart = System.nanoTime();
+            List<PossiblePlate> possiblePlates = plateRecognizer.recognize(sample.imgScene, sample.strName);
+            evaluation.lngTotalNanos += System.nanoTime() - lngStart;
+
+            String strRead = possiblePlates.isEmpty() ? "" : normalize(possiblePlates.get(0).getStrCharsReverse());
+            evaluation.listOfReads.add(strRead);
+            if (strRead.equals(sample.strTruth))
+                evaluation.intExactMatches++;
+            evaluation.lngCharEdits += editDistance(strRead, sample.strTruth);
+            evaluation.lngTruthChars += sample.strTruth.length();
+        }
+
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            evaluation.stageMillisPerImage[stage.ordinal()] = PipelineMetrics.getMeanMillis(stage)
+                    * PipelineMetrics.getCount(stage) / Math.max(1, listOfSamples.size());
+        }
+        for (PipelineMetrics.Counter counter : PipelineMetrics.Counter.values())
+            evaluation.counters[counter.ordinal()] = PipelineMetrics.getCount(counter);
+
+        return evaluation;
+    }
+
+    static String report(List<Sample> listOfSamples, Evaluation first, Evaluation second) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%d images%n", listOfSamples.size()));
+        report.append(String.format(Locale.US, "%-24s %14s %14s%n", "", first.strConfig, second.strConfig));
+        report.append(String.format(Locale.US, "%-24s %13.1f%% %13.1f%%%n", "exact match",
+                100 * first.getExactMatchRate(), 100 * second.getExactMatchRate()));
+        report.append(String.format(Locale.US, "%-24s %13.1f%% %13.1f%%%n", "char error rate",
+                100 * first.getCharErrorRate(), 100 * second.getCharErrorRate()));
+        report.append(String.format(Locale.US, "%-24s %14.2f %14.2f%n", "images/s",
+                first.getImagesPerSecond(), second.getImagesPerSecond()));
+
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            report.append(String.format(Locale.US, "%-24s %14.2f %14.2f%n", stage + " ms/image",
+                    first.stageMillisPerImage[stage.ordinal()], second.stageMillisPerImage[stage.ordinal()]));
+        }
+        for (PipelineMetrics.Counter counter : PipelineMetrics.Counter.values()) {
+            report.append(String.format(Locale.US, "%-24s %14d %14d%n", counter,
+                    first.counters[counter.ordinal()], second.counters[counter.ordinal()]));
+        }
+
+        // Images read differently, + marks the configuration that got it right
+        report.append(String.format(Locale.US, "%nDifferences%n"));
+        for (int i = 0; i < listOfSamples.size(); i++) {
+            String strFirst = first.listOfReads.get(i);
+            String strSecond = second.listOfReads.get(i);
+            if (strFirst.equals(strSecond))
+                continue;
+
+            Sample sample = listOfSamples.get(i);
+            report.append(String.format(Locale.US, "%-32s truth=%-10s %s%-10s %s%-10s%n", sample.strName, sample.strTruth,
+                    strFirst.equals(sample.strTruth) ? "+" : " ", strFirst,
+                    strSecond.equals(sample.strTruth) ? "+" : " ", strSecond));
+        }
+
+        return report.toString();
+    }
+
+    // Levenshtein distance
+    static int editDistance(String strFirst, String strSecond) {
+        int[] previous = new int[strSecond.length() + 1];
+        int[] current = new int[strSecond.length() + 1];
+        for (int j = 0; j <= strSecond.length(); j++)
+            previous[j] = j;
+
+        for (int i = 1; i <= strFirst.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= strSecond.length(); j++) {
+                int intSubstitution = previous[j - 1] + (strFirst.charAt(i - 1) == strSecond.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(intSubstitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[strSecond.length()];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CorpusEvaluator <corpus dir> <classifications.txt> <images.txt> [config A[:classifier]] [config B[:classifier]]");
+            printChoices();
+            System.exit(2);
+        }
+        String strFirst = args.length > 3 ? args[3] : "baseline";
+        String strSecond = args.length > 4 ? args[4] : "fast";
+        if (!isValid(strFirst) || !isValid(strSecond)) {
+            printChoices();
+            System.exit(2);
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        CharTrainingData trainingData;
+        try (FileInputStream classifications = new FileInputStream(args[1]);
+             FileInputStream images = new FileInputStream(args[2])) {
+            trainingData = CharTrainingData.load(classifications, images);
+        }
+
+        List<Sample> listOfSamples = loadCorpus(new File(args[0]));
+        CharClassifier firstClassifier = CLASSIFIERS.get(classifierOf(strFirst)).train(trainingData);
+        CharClassifier secondClassifier = CLASSIFIERS.get(classifierOf(strSecond)).train(trainingData);
+
+        // warm-up, results thrown away
+        evaluate(strFirst, CONFIGS.get(configOf(strFirst)), firstClassifier, listOfSamples);
+        evaluate(strSecond, CONFIGS.get(configOf(strSecond)), secondClassifier, listOfSamples);
+
+        Evaluation first = evaluate(strFirst, CONFIGS.get(configOf(strFirst)), firstClassifier, listOfSamples);
+        Evaluation second = evaluate(strSecond, CONFIGS.get(configOf(strSecond)), secondClassifier, listOfSamples);
+        System.out.print(report(listOfSamples, first, second));
+    }
+
+    private static String configOf(String strSpec) {
+        int intColon = strSpec.indexOf(':');
+        return intColon < 0 ? strSpec : strSpec.substring(0, intColon);
+    }
+
+    private static String classifierOf(String strSpec) {
+        int intColon = strSpec.indexOf(':');
+        return intColon < 0 ? DEFAULT_CLASSIFIER : strSpec.substring(intColon + 1);
+    }
+
+    private static boolean isValid(String strSpec) {
+        return CONFIGS.containsKey(configOf(strSpec)) && CLASSIFIERS.containsKey(classifierOf(strSpec));
+    }
+
+    private static void printChoices() {
+        System.err.println("Configs: " + CONFIGS.keySet());
+        System.err.println("Classifiers: " + CLASSIFIERS.keySet());
+    }
+}
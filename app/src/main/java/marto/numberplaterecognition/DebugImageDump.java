@@ -0,0 +1,71 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// DebugSink writing the intermediates as PNGs into a directory, possible chars boxed in yellow,
+// matching chars and cut out chars in green
+class DebugImageDump implements DebugSink {
+    private static final Scalar SCALAR_YELLOW = new Scalar(0.0, 255.0, 255.0);
+    private static final Scalar SCALAR_GREEN = new Scalar(0.0, 255.0, 0.0);
+
+    private final File directory;
+    private final AtomicInteger intScenes = new AtomicInteger();
+    private final AtomicInteger intPlates = new AtomicInteger();
+
+    DebugImageDump(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Can't create debug directory " + directory);
+    }
+
+    @Override
+    public void onScene(Mat imgThresh, List<PossibleChar> listOfPossibleChars, List<List<PossibleChar>> listOfMatchingChars) {
+        Mat imgThreshColor = new Mat();
+        Imgproc.cvtColor(imgThresh, imgThreshColor, Imgproc.COLOR_GRAY2BGR);
+
+        for (PossibleChar possibleChar : listOfPossibleChars)
+            drawBox(imgThreshColor, possibleChar.getBoundingRect(), SCALAR_YELLOW);
+        for (List<PossibleChar> listOfChars : listOfMatchingChars) {
+            for (PossibleChar matchingChar : listOfChars)
+                drawBox(imgThreshColor, matchingChar.getBoundingRect(), SCALAR_GREEN);
+        }
+
+        write(String.format(Locale.US, "scene-%06d.png", intScenes.getAndIncrement()), imgThreshColor);
+    }
+
+    @Override
+    public void onGlyphs(PossiblePlate possiblePlate, Mat imgThresh, List<PossibleChar> listOfChars, List<Mat> listOfGlyphs) {
+        int intPlate = intPlates.getAndIncrement();
+
+        Mat imgThreshColor = new Mat();
+        Imgproc.cvtColor(imgThresh, imgThreshColor, Imgproc.COLOR_GRAY2BGR);
+        for (PossibleChar currentChar : listOfChars)
+            drawBox(imgThreshColor, currentChar.getBoundingRect(), SCALAR_GREEN);
+        write(String.format(Locale.US, "plate-%06d.png", intPlate), imgThreshColor);
+
+        // All glyphs side by side, as the classifier sees them
+        if (!listOfGlyphs.isEmpty()) {
+            Mat imgGlyphs = new Mat();
+            Core.hconcat(listOfGlyphs, imgGlyphs);
+            write(String.format(Locale.US, "plate-%06d-glyphs.png", intPlate), imgGlyphs);
+        }
+    }
+
+    private void drawBox(Mat img, Rect rect, Scalar color) {
+        Imgproc.rectangle(img, rect.tl(), rect.br(), color, 1);
+    }
+
+    private void write(String strName, Mat img) {
+        Imgcodecs.imwrite(new File(directory, strName).getPath(), img);
+    }
+}
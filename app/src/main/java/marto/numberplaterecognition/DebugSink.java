@@ -0,0 +1,17 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+
+import java.util.List;
+
+// Receives intermediate images and boxes of the recognition for visualization or offline tuning.
+// Nothing is drawn or copied for it unless a sink is attached. Coordinates are those of the image
+// handed over, in coarse-to-fine mode that is the region of interest. The Mats are owned by the
+// pipeline, a sink keeping them must clone them.
+interface DebugSink {
+    // Scene threshold image, every possible char in it and the groups of matching chars
+    void onScene(Mat imgThresh, List<PossibleChar> listOfPossibleChars, List<List<PossibleChar>> listOfMatchingChars);
+
+    // Threshold image of a plate, the chars cut out of it and their 20x30 glyphs, left to right
+    void onGlyphs(PossiblePlate possiblePlate, Mat imgThresh, List<PossibleChar> listOfChars, List<Mat> listOfGlyphs);
+}
@@ -1,15 +1,14 @@
 package marto.numberplaterecognition;
 
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 class DetectChars {
     // constants for checkIfPossibleChar
@@ -29,25 +28,94 @@ class DetectChars {
     private static final int MIN_NUMBER_OF_MATCHING_CHARS = 3;
     private static final int RESIZED_CHAR_IMAGE_WIDTH = 20;
     private static final int RESIZED_CHAR_IMAGE_HEIGHT = 30;
+    private static final double PLATE_UPSCALE_FACTOR = 1.6;
+
+    // constants for early rejection of plates with junk glyphs
+    private static final float MIN_CHAR_CONFIDENCE = 0.5f;
+    // Recognition of a plate stops once more glyphs than this are low confidence
+    private static final int MAX_LOW_CONFIDENCE_CHARS = 2;
+
+    // Deadline for detectCharsInPlates that never comes
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Segment chars on the plate's own threshold image, only the glyphs get resized to 20x30
+    private boolean nativeResolutionSegmentation;
+
+    // Intermediates go here when set, null skips all debug work
+    private DebugSink debugSink;
+
+    // Single best plate mode, reading stops at the first plate matching this, null reads all plates
+    private Pattern ptnSinglePlate;
+    private float fltSinglePlateMinConfidence;
+
+    // For scenes with exactly one plate. A read matching ptnPlate left to right, e.g.
+    // "[A-Z]{1,2}\\d{4}[A-Z]{2}", with every char at least fltMinConfidence ends the search.
+    void setSingleBestPlate(Pattern ptnPlate, float fltMinConfidence) {
+        this.ptnSinglePlate = ptnPlate;
+        this.fltSinglePlateMinConfidence = fltMinConfidence;
+    }
+
+    void setDebugSink(DebugSink debugSink) {
+        this.debugSink = debugSink;
+    }
+
+    // Skips upscaling and re-thresholding the whole plate, and the contour search runs on 2.56x
+    // fewer pixels
+    void setNativeResolutionSegmentation(boolean nativeResolutionSegmentation) {
+        this.nativeResolutionSegmentation = nativeResolutionSegmentation;
+    }
 
     List<PossiblePlate> detectCharsInPlates(List<PossiblePlate> possiblePlates) {
+        return detectCharsInPlates(possiblePlates, NO_DEADLINE);
+    }
+
+    // Plates are read best scored first. Once System.nanoTime() passes lngDeadlineNanos only the
+    // plates read so far are returned, flagged partial. The best scored plate is always read.
+    List<PossiblePlate> detectCharsInPlates(List<PossiblePlate> possiblePlates, long lngDeadlineNanos) {
         if (possiblePlates.isEmpty()) return possiblePlates;
 
+        possiblePlates = new ArrayList<>(possiblePlates);
+        Collections.sort(possiblePlates, PlateScoring.BY_SCORE_DESCENDING);
+        List<PossiblePlate> listOfReadPlates = new ArrayList<>();
+
+        // waits for the background training on the first recognition after start
+        CharClassifier charClassifier = CharClassifiers.get();
+
         // at least one plate
         for (PossiblePlate possiblePlate : possiblePlates) {
-            // get grayscale and threshold images
-            Preprocess.preprocess(possiblePlate.getImgPlate(), possiblePlate.getImgGrayscale(),
-                    possiblePlate.getImgThresh());
-
-            // Upscale by 60% for better viewing and character recognition
-            Imgproc.resize(possiblePlate.getImgThresh(), possiblePlate.getImgThresh(), new Size(), 1.6, 1.6);
+            if (!listOfReadPlates.isEmpty() && isPast(lngDeadlineNanos)) {
+                for (PossiblePlate readPlate : listOfReadPlates)
+                    readPlate.setPartial(true);
+                PipelineMetrics.count(PipelineMetrics.Counter.DEADLINE_HITS, 1);
+                break;
+            }
+            listOfReadPlates.add(possiblePlate);
+
+            long lngStart = PipelineMetrics.start();
+
+            // get grayscale and threshold images, cropped from the preprocessed scene when it was kept
+            if (!possiblePlate.getImgMaxContrast().empty())
+                Preprocess.threshold(possiblePlate.getImgMaxContrast(), possiblePlate.getImgThresh());
+            else
+                Preprocess.preprocess(possiblePlate.getImgPlate(), possiblePlate.getImgGrayscale(),
+                        possiblePlate.getImgThresh());
+
+            // Chars are searched on the threshold image as it is, the size limits scaled down instead
+            double dblCharScale = 1.0 / PLATE_UPSCALE_FACTOR;
+            if (!nativeResolutionSegmentation) {
+                // Upscale by 60% for better viewing and character recognition
+                Imgproc.resize(possiblePlate.getImgThresh(), possiblePlate.getImgThresh(), new Size(), PLATE_UPSCALE_FACTOR, PLATE_UPSCALE_FACTOR);
+
+                // Threshold again to eliminate any gray areas
+                Imgproc.threshold(possiblePlate.getImgThresh(), possiblePlate.getImgThresh(),
+                        0.0, 255.0, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
+                dblCharScale = 1.0;
+            }
 
-            // Threshold again to eliminate any gray areas
-            Imgproc.threshold(possiblePlate.getImgThresh(), possiblePlate.getImgThresh(),
-                    0.0, 255.0, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
+            PipelineMetrics.stop(PipelineMetrics.Stage.CHAR_PREPROCESS, lngStart);
 
             // Find possible chars in the plate
-            List<PossibleChar> possibleCharsInPlate = findPossibleCharsInPlate(possiblePlate.getImgThresh());
+            List<PossibleChar> possibleCharsInPlate = findPossibleCharsInPlate(possiblePlate.getImgThresh(), dblCharScale);
 
             // Find groups of matching chars within the plate
             List<List<PossibleChar>> matchingCharsInPlate = findMatchingChars(possibleCharsInPlate);
@@ -71,13 +139,41 @@ class DetectChars {
             List<PossibleChar> longestMatchingChars = matchingCharsInPlate.get(longestLendIdx);
 
             // Char recognition on the longest list
-            possiblePlate.setStrChars(recognizeCharsInPlate(possiblePlate.getImgThresh(), longestMatchingChars));
+            lngStart = PipelineMetrics.start();
+            List<Mat> listOfGlyphs = cutGlyphs(possiblePlate.getImgThresh(), longestMatchingChars);
+            if (debugSink != null)
+                debugSink.onGlyphs(possiblePlate, possiblePlate.getImgThresh(), longestMatchingChars, listOfGlyphs);
+            recognizeCharsInPlate(charClassifier, possiblePlate, listOfGlyphs);
+            PipelineMetrics.stop(PipelineMetrics.Stage.CLASSIFY, lngStart);
+            PipelineMetrics.count(PipelineMetrics.Counter.CHARS, longestMatchingChars.size());
+
+            if (isSinglePlate(possiblePlate)) {
+                PipelineMetrics.count(PipelineMetrics.Counter.EARLY_EXITS, 1);
+                List<PossiblePlate> listOfSinglePlate = new ArrayList<>();
+                listOfSinglePlate.add(possiblePlate);
+                return listOfSinglePlate;
+            }
         }
 
-        return possiblePlates;
+        return listOfReadPlates;
     }
 
-    private List<PossibleChar> findPossibleCharsInPlate(Mat imgThresh) {
+    private boolean isSinglePlate(PossiblePlate possiblePlate) {
+        if (ptnSinglePlate == null || possiblePlate.getStrChars().isEmpty())
+            return false;
+
+        for (float fltConfidence : possiblePlate.getCharConfidences()) {
+            if (fltConfidence < fltSinglePlateMinConfidence)
+                return false;
+        }
+        return ptnSinglePlate.matcher(possiblePlate.getStrCharsReverse()).matches();
+    }
+
+    private static boolean isPast(long lngDeadlineNanos) {
+        return lngDeadlineNanos != NO_DEADLINE && System.nanoTime() - lngDeadlineNanos >= 0;
+    }
+
+    private List<PossibleChar> findPossibleCharsInPlate(Mat imgThresh, double dblScale) {
         List<PossibleChar> listOfPossibleChars = new ArrayList<>();
         List<MatOfPoint> contours = new ArrayList<>();
         Mat imgThreshCopy = imgThresh.clone();
@@ -88,7 +184,7 @@ class DetectChars {
         for (MatOfPoint contour : contours) {
             PossibleChar possibleChar = new PossibleChar(contour);
 
-            if (checkIfPossibleChar(possibleChar))
+            if (checkIfPossibleChar(possibleChar, dblScale))
                 listOfPossibleChars.add(possibleChar);
         }
 
@@ -96,10 +192,14 @@ class DetectChars {
     }
 
     boolean checkIfPossibleChar(PossibleChar possibleChar) {
-        // Rough check on a contour to see if it could be a char,
-        return possibleChar.getBoundingRect().area() > MIN_PIXEL_AREA &&
-                possibleChar.getBoundingRect().width > MIN_PIXEL_WIDTH &&
-                possibleChar.getBoundingRect().height > MIN_PIXEL_HEIGHT &&
+        return checkIfPossibleChar(possibleChar, 1.0);
+    }
+
+    boolean checkIfPossibleChar(PossibleChar possibleChar, double dblScale) {
+        // Rough check on a contour to see if it could be a char, size limits follow the image scale
+        return possibleChar.getBoundingRect().area() > MIN_PIXEL_AREA * dblScale * dblScale &&
+                possibleChar.getBoundingRect().width > MIN_PIXEL_WIDTH * dblScale &&
+                possibleChar.getBoundingRect().height > MIN_PIXEL_HEIGHT * dblScale &&
                 possibleChar.getDblAspectRatio() > MIN_ASPECT_RATIO &&
                 possibleChar.getDblAspectRatio() < MAX_ASPECT_RATIO;
     }
@@ -177,39 +277,61 @@ class DetectChars {
         return dblAngleInRad * (180.0 / Math.PI);
     }
 
-    private String recognizeCharsInPlate(Mat imgThresh, List<PossibleChar> listOfMatchingChars) {
-        StringBuilder strChars = new StringBuilder();
+    // Glyph images ready for the classifier, in the order of the sorted chars
+    private List<Mat> cutGlyphs(Mat imgThresh, List<PossibleChar> listOfMatchingChars) {
+        List<Mat> listOfGlyphs = new ArrayList<>();
 
         // sort chars from left to right
         Collections.sort(listOfMatchingChars);
 
-        Mat imgThreshColor = new Mat();
-        Imgproc.cvtColor(imgThresh, imgThreshColor, Imgproc.COLOR_GRAY2BGR);
-
         for (PossibleChar currentChar : listOfMatchingChars) {
-            // draw green box around the char
-            Imgproc.rectangle(imgThreshColor, currentChar.getBoundingRect().br(), currentChar.getBoundingRect().tl(), new Scalar(0, 255, 0, 128), 2);
-
-            Mat imgROItoBeCloned = new Mat(imgThresh, currentChar.getBoundingRect());
-            Mat imgROI = imgROItoBeCloned.clone();
+            Mat imgROI = new Mat(imgThresh, currentChar.getBoundingRect());
 
             Mat imgROIResized = new Mat();
-            // resize image for char recognition
+            // resize image for char recognition, straight from the plate without a copy of the ROI
             Imgproc.resize(imgROI, imgROIResized, new Size(RESIZED_CHAR_IMAGE_WIDTH, RESIZED_CHAR_IMAGE_HEIGHT));
 
-            Mat matROIFloat = new Mat();
-            // convert Mat to float, necessary for call to findNearest
-            imgROIResized.convertTo(matROIFloat, CvType.CV_32FC1);
+            listOfGlyphs.add(imgROIResized);
+        }
+        return listOfGlyphs;
+    }
 
-            Mat matROIFlattenedFloat = matROIFloat.reshape(1, 1);
-            Mat matCurrentChar = new Mat(0, 0, CvType.CV_32F);
+    private void recognizeCharsInPlate(CharClassifier charClassifier, PossiblePlate possiblePlate, List<Mat> listOfGlyphs) {
+        List<CharClassifier.Result> listOfResults = new ArrayList<>();
+        int intLowConfidenceChars = 0;
 
-            MainActivity.kNearest.findNearest(matROIFlattenedFloat, 1, matCurrentChar);
+        for (Mat imgGlyph : listOfGlyphs) {
+            CharClassifier.Result result = charClassifier.classify(imgGlyph);
+            listOfResults.add(result);
 
-            float fltCurrentChar = (float) matCurrentChar.get(0, 0)[0];
+            // Too many junk glyphs, most likely not a plate, skip classifying the rest
+            if (result.getConfidence() < MIN_CHAR_CONFIDENCE && ++intLowConfidenceChars > MAX_LOW_CONFIDENCE_CHARS)
+                break;
+        }
+
+        setCharsOfPlate(possiblePlate, listOfResults);
+    }
 
-            strChars.append((char) ((int) fltCurrentChar));
+    private void setCharsOfPlate(PossiblePlate possiblePlate, List<CharClassifier.Result> listOfResults) {
+        StringBuilder strChars = new StringBuilder();
+        float[] charConfidences = new float[listOfResults.size()];
+        int intLowConfidenceChars = 0;
+
+        for (int i = 0; i < listOfResults.size(); i++) {
+            strChars.append(listOfResults.get(i).getChr());
+            charConfidences[i] = listOfResults.get(i).getConfidence();
+            if (charConfidences[i] < MIN_CHAR_CONFIDENCE)
+                intLowConfidenceChars++;
+        }
+
+        // Rejected as not a plate
+        if (intLowConfidenceChars > MAX_LOW_CONFIDENCE_CHARS) {
+            possiblePlate.setStrChars("");
+            possiblePlate.setCharConfidences(new float[0]);
+            return;
         }
-        return strChars.toString();
+
+        possiblePlate.setStrChars(strChars.toString());
+        possiblePlate.setCharConfidences(charConfidences);
     }
 }
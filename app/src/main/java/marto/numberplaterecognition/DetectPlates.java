@@ -1,8 +1,10 @@
 package marto.numberplaterecognition;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -10,32 +12,51 @@ import org.opencv.imgproc.Imgproc;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 class DetectPlates {
 
     private static final double PLATE_WIDTH_PADDING_FACTOR = 1.3;
     private static final double PLATE_HEIGHT_PADDING_FACTOR = 1.5;
 
+    // constants for the coarse pass of coarse-to-fine search
+    private static final double ROI_WIDTH_PADDING_FACTOR = 1.6;
+    private static final double ROI_HEIGHT_PADDING_FACTOR = 3.0;
+
+    // constants for tiled detection, overlap is wide enough for the largest plate
+    private static final int TILE_SIZE = 1024;
+    private static final int TILE_OVERLAP = 400;
+    private static final double MIN_OVERLAP_TO_MERGE_CHARS = 0.5;
+
     private DetectChars detectChars;
+    // Intermediates go here when set, null skips all debug work
+    private DebugSink debugSink;
 
     DetectPlates() {
         detectChars = new DetectChars();
     }
 
+    void setDebugSink(DebugSink debugSink) {
+        this.debugSink = debugSink;
+    }
+
     List<PossiblePlate> detectPlatesInScene(Mat imgOriginalScene) {
         List<PossiblePlate> listOfPossiblePlates = new ArrayList<>();
 
-        Mat imgGrayscaleScene = new Mat();
-        Mat imgThreshScene = new Mat();
-
-        Preprocess.preprocess(imgOriginalScene, imgGrayscaleScene, imgThreshScene);
+        PreprocessResult preprocessedScene = preprocessScene(imgOriginalScene);
 
-        List<PossibleChar> listOfPossibleCharsInScene = findPossibleCharsInScene(imgThreshScene);
-        List<List<PossibleChar>> listOfMatchingCharsInScene = detectChars.findMatchingChars(listOfPossibleCharsInScene);
+        List<PossibleChar> listOfPossibleCharsInScene = findPossibleCharsInScene(preprocessedScene.getImgThresh());
+        List<List<PossibleChar>> listOfMatchingCharsInScene = findMatchingCharsInScene(listOfPossibleCharsInScene);
+        if (debugSink != null)
+            debugSink.onScene(preprocessedScene.getImgThresh(), listOfPossibleCharsInScene, listOfMatchingCharsInScene);
 
         // for each group of matching chars attempt to extract plate
         for (List<PossibleChar> listOfMatchingChars : listOfMatchingCharsInScene) {
-            PossiblePlate possiblePlate = extractPlate(imgOriginalScene, listOfMatchingChars);
+            PossiblePlate possiblePlate = extractPlate(imgOriginalScene, preprocessedScene, listOfMatchingChars);
 
             if (!possiblePlate.getImgPlate().empty())
                 listOfPossiblePlates.add(possiblePlate);
@@ -44,7 +65,283 @@ class DetectPlates {
         return listOfPossiblePlates;
     }
 
-    private List<PossibleChar> findPossibleCharsInScene(Mat imgThresh) {
+    List<PossiblePlate> detectPlatesInSceneCoarseToFine(Mat imgOriginalScene, int intPyramidLevels) {
+        if (intPyramidLevels <= 0)
+            return detectPlatesInScene(imgOriginalScene);
+
+        // Coarse pass, find groups of matching chars on the downscaled scene
+        Mat imgCoarseScene = imgOriginalScene;
+        for (int i = 0; i < intPyramidLevels; i++) {
+            Mat imgDown = new Mat();
+            Imgproc.pyrDown(imgCoarseScene, imgDown);
+            imgCoarseScene = imgDown;
+        }
+        double dblScale = Math.pow(2, intPyramidLevels);
+
+        Mat imgThreshCoarse = preprocessScene(imgCoarseScene).getImgThresh();
+
+        List<PossibleChar> listOfPossibleCharsInScene = findPossibleCharsInScene(imgThreshCoarse, 1.0 / dblScale);
+        List<List<PossibleChar>> listOfMatchingCharsInScene = findMatchingCharsInScene(listOfPossibleCharsInScene);
+
+        // Upscale the groups to regions of interest in the full resolution scene
+        Rect rectScene = new Rect(0, 0, imgOriginalScene.cols(), imgOriginalScene.rows());
+        List<Rect> listOfRois = new ArrayList<>();
+        for (List<PossibleChar> listOfMatchingChars : listOfMatchingCharsInScene)
+            listOfRois.add(regionOfMatchingChars(listOfMatchingChars, dblScale, rectScene));
+
+        // Fine pass, full pipeline only inside the regions
+        List<PossiblePlate> listOfPossiblePlates = new ArrayList<>();
+        for (Rect roi : mergeOverlappingRects(listOfRois)) {
+            if (roi.area() == 0)
+                continue;
+
+            for (PossiblePlate possiblePlate : detectPlatesInScene(new Mat(imgOriginalScene, roi))) {
+                // Move plate location back into scene coordinates
+                RotatedRect rrLocation = possiblePlate.getRrLocationOfPlateInScene();
+                rrLocation.center = new Point(rrLocation.center.x + roi.x, rrLocation.center.y + roi.y);
+                listOfPossiblePlates.add(possiblePlate);
+            }
+        }
+
+        return listOfPossiblePlates;
+    }
+
+    List<PossiblePlate> detectPlatesInSceneTiled(final Mat imgOriginalScene, ForkJoinPool pool) {
+        final Rect rectScene = new Rect(0, 0, imgOriginalScene.cols(), imgOriginalScene.rows());
+        // Tile thresholds stitched together for the debug sink only, an overlap shows the last tile
+        final Mat imgThreshScene = debugSink == null ? null : Mat.zeros(imgOriginalScene.rows(), imgOriginalScene.cols(), CvType.CV_8UC1);
+
+        // Preprocess and find possible chars per tile in parallel
+        List<Rect> listOfTiles = splitIntoTiles(rectScene);
+        List<Callable<List<PossibleChar>>> listOfTileTasks = new ArrayList<>();
+        for (final Rect rectTile : listOfTiles) {
+            listOfTileTasks.add(new Callable<List<PossibleChar>>() {
+                @Override
+                public List<PossibleChar> call() {
+                    return findPossibleCharsInTile(imgOriginalScene, rectTile, rectScene, imgThreshScene);
+                }
+            });
+        }
+
+        // Merge chars across tile seams, a char inside an overlap is found by more than one tile.
+        // Only those chars can be duplicates, so only they are compared with each other
+        List<PossibleChar> listOfPossibleCharsInScene = new ArrayList<>();
+        List<PossibleChar> listOfCharsInOverlaps = new ArrayList<>();
+        List<List<PossibleChar>> listOfCharsPerTile = invokeAll(pool, listOfTileTasks);
+        for (int i = 0; i < listOfTiles.size(); i++) {
+            for (PossibleChar possibleChar : listOfCharsPerTile.get(i)) {
+                if (isInOverlap(possibleChar.getBoundingRect(), listOfTiles, i)) {
+                    if (containsSameChar(listOfCharsInOverlaps, possibleChar))
+                        continue;
+                    listOfCharsInOverlaps.add(possibleChar);
+                }
+                listOfPossibleCharsInScene.add(possibleChar);
+            }
+        }
+
+        List<List<PossibleChar>> listOfMatchingCharsInScene = findMatchingCharsInScene(listOfPossibleCharsInScene);
+        if (debugSink != null)
+            debugSink.onScene(imgThreshScene, listOfPossibleCharsInScene, listOfMatchingCharsInScene);
+
+        // Extracting a plate rotates the whole scene, so spread it over the pool as well
+        List<Callable<PossiblePlate>> listOfPlateTasks = new ArrayList<>();
+        for (final List<PossibleChar> listOfMatchingChars : listOfMatchingCharsInScene) {
+            listOfPlateTasks.add(new Callable<PossiblePlate>() {
+                @Override
+                public PossiblePlate call() {
+                    // tiles are preprocessed separately, the plates get preprocessed on their own
+                    return extractPlate(imgOriginalScene, null, listOfMatchingChars);
+                }
+            });
+        }
+
+        List<PossiblePlate> listOfPossiblePlates = new ArrayList<>();
+        for (PossiblePlate possiblePlate : invokeAll(pool, listOfPlateTasks)) {
+            if (!possiblePlate.getImgPlate().empty())
+                listOfPossiblePlates.add(possiblePlate);
+        }
+
+        return listOfPossiblePlates;
+    }
+
+    private List<Rect> splitIntoTiles(Rect rectScene) {
+        List<Rect> listOfTiles = new ArrayList<>();
+        int intStep = TILE_SIZE - TILE_OVERLAP;
+
+        for (int y = 0; ; y += intStep) {
+            for (int x = 0; ; x += intStep) {
+                listOfTiles.add(clipRect(new Rect(x, y, TILE_SIZE, TILE_SIZE), rectScene));
+                if (x + TILE_SIZE >= rectScene.width)
+                    break;
+            }
+            if (y + TILE_SIZE >= rectScene.height)
+                break;
+        }
+
+        return listOfTiles;
+    }
+
+    private List<PossibleChar> findPossibleCharsInTile(Mat imgOriginalScene, Rect rectTile, Rect rectScene, Mat imgThreshScene) {
+
+        Mat imgThreshTile = preprocessScene(new Mat(imgOriginalScene, rectTile)).getImgThresh();
+        if (imgThreshScene != null) {
+            synchronized (imgThreshScene) {
+                imgThreshTile.copyTo(imgThreshScene.submat(rectTile));
+            }
+        }
+
+        List<PossibleChar> listOfPossibleChars = new ArrayList<>();
+        for (PossibleChar possibleChar : findPossibleCharsInScene(imgThreshTile)) {
+            Rect boundingRect = possibleChar.getBoundingRect();
+
+            // Chars cut by an inner tile edge are found whole by the neighbouring tile
+            if ((boundingRect.x == 0 && rectTile.x > rectScene.x) ||
+                    (boundingRect.y == 0 && rectTile.y > rectScene.y) ||
+                    (boundingRect.x + boundingRect.width == rectTile.width && rectTile.x + rectTile.width < rectScene.width) ||
+                    (boundingRect.y + boundingRect.height == rectTile.height && rectTile.y + rectTile.height < rectScene.height))
+                continue;
+
+            possibleChar.translate(rectTile.x, rectTile.y);
+            listOfPossibleChars.add(possibleChar);
+        }
+
+        return listOfPossibleChars;
+    }
+
+    // True when the rect reaches into any tile other than its own
+    private static boolean isInOverlap(Rect rect, List<Rect> listOfTiles, int intOwnTile) {
+        for (int i = 0; i < listOfTiles.size(); i++) {
+            Rect rectTile = listOfTiles.get(i);
+            if (i != intOwnTile &&
+                    rect.x < rectTile.x + rectTile.width && rectTile.x < rect.x + rect.width &&
+                    rect.y < rectTile.y + rectTile.height && rectTile.y < rect.y + rect.height)
+                return true;
+        }
+
+        return false;
+    }
+
+    private boolean containsSameChar(List<PossibleChar> listOfChars, PossibleChar possibleChar) {
+        Rect rect = possibleChar.getBoundingRect();
+
+        for (PossibleChar otherChar : listOfChars) {
+            Rect otherRect = otherChar.getBoundingRect();
+
+            int intOverlapWidth = Math.min(rect.x + rect.width, otherRect.x + otherRect.width) - Math.max(rect.x, otherRect.x);
+            int intOverlapHeight = Math.min(rect.y + rect.height, otherRect.y + otherRect.height) - Math.max(rect.y, otherRect.y);
+            if (intOverlapWidth <= 0 || intOverlapHeight <= 0)
+                continue;
+
+            double dblOverlapArea = (double) intOverlapWidth * intOverlapHeight;
+            double dblIntersectionOverUnion = dblOverlapArea / (rect.area() + otherRect.area() - dblOverlapArea);
+            if (dblIntersectionOverUnion > MIN_OVERLAP_TO_MERGE_CHARS)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> listOfTasks) {
+        List<T> listOfResults = new ArrayList<>();
+        List<Future<T>> listOfFutures = pool.invokeAll(listOfTasks);
+
+        try {
+            for (Future<T> future : listOfFutures)
+                listOfResults.add(future.get());
+        } catch (InterruptedException e) {
+            // A scene missing some tiles would look like a scene without plates, so give up on all of it
+            for (Future<T> future : listOfFutures)
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            CancellationException cancellation = new CancellationException("Tiled detection interrupted");
+            cancellation.initCause(e);
+            throw cancellation;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return listOfResults;
+    }
+
+    private Rect regionOfMatchingChars(List<PossibleChar> listOfMatchingChars, double dblScale, Rect rectScene) {
+        int intLeft = Integer.MAX_VALUE, intTop = Integer.MAX_VALUE;
+        int intRight = 0, intBottom = 0;
+        for (PossibleChar matchingChar : listOfMatchingChars) {
+            Rect boundingRect = matchingChar.getBoundingRect();
+            intLeft = Math.min(intLeft, boundingRect.x);
+            intTop = Math.min(intTop, boundingRect.y);
+            intRight = Math.max(intRight, boundingRect.x + boundingRect.width);
+            intBottom = Math.max(intBottom, boundingRect.y + boundingRect.height);
+        }
+
+        // Pad around the chars, so the fine pass sees the whole plate and its background
+        double dblCenterX = (intLeft + intRight) / 2.0 * dblScale;
+        double dblCenterY = (intTop + intBottom) / 2.0 * dblScale;
+        double dblWidth = (intRight - intLeft) * dblScale * ROI_WIDTH_PADDING_FACTOR;
+        double dblHeight = (intBottom - intTop) * dblScale * ROI_HEIGHT_PADDING_FACTOR;
+
+        return clipRect(new Rect((int) (dblCenterX - dblWidth / 2), (int) (dblCenterY - dblHeight / 2),
+                (int) dblWidth, (int) dblHeight), rectScene);
+    }
+
+    private List<Rect> mergeOverlappingRects(List<Rect> listOfRects) {
+        List<Rect> listOfMerged = new ArrayList<>(listOfRects);
+
+        boolean blnMerged = true;
+        while (blnMerged) {
+            blnMerged = false;
+            for (int i = 0; i < listOfMerged.size() && !blnMerged; i++) {
+                for (int j = i + 1; j < listOfMerged.size() && !blnMerged; j++) {
+                    Rect first = listOfMerged.get(i);
+                    Rect second = listOfMerged.get(j);
+                    if (first.x < second.x + second.width && second.x < first.x + first.width &&
+                            first.y < second.y + second.height && second.y < first.y + first.height) {
+                        int intLeft = Math.min(first.x, second.x);
+                        int intTop = Math.min(first.y, second.y);
+                        int intRight = Math.max(first.x + first.width, second.x + second.width);
+                        int intBottom = Math.max(first.y + first.height, second.y + second.height);
+                        listOfMerged.set(i, new Rect(intLeft, intTop, intRight - intLeft, intBottom - intTop));
+                        listOfMerged.remove(j);
+                        blnMerged = true;
+                    }
+                }
+            }
+        }
+
+        return listOfMerged;
+    }
+
+    private Rect clipRect(Rect rect, Rect rectBounds) {
+        int intLeft = Math.max(rect.x, rectBounds.x);
+        int intTop = Math.max(rect.y, rectBounds.y);
+        int intRight = Math.min(rect.x + rect.width, rectBounds.x + rectBounds.width);
+        int intBottom = Math.min(rect.y + rect.height, rectBounds.y + rectBounds.height);
+
+        return new Rect(intLeft, intTop, Math.max(0, intRight - intLeft), Math.max(0, intBottom - intTop));
+    }
+
+    PreprocessResult preprocessScene(Mat imgOriginal) {
+        long lngStart = PipelineMetrics.start();
+        PreprocessResult preprocessed = Preprocess.preprocess(imgOriginal);
+        PipelineMetrics.stop(PipelineMetrics.Stage.PREPROCESS, lngStart);
+        return preprocessed;
+    }
+
+    List<List<PossibleChar>> findMatchingCharsInScene(List<PossibleChar> listOfPossibleChars) {
+        long lngStart = PipelineMetrics.start();
+        List<List<PossibleChar>> listOfMatchingChars = detectChars.findMatchingChars(listOfPossibleChars);
+        PipelineMetrics.stop(PipelineMetrics.Stage.MATCH_CHARS, lngStart);
+        PipelineMetrics.count(PipelineMetrics.Counter.GROUPS, listOfMatchingChars.size());
+
+        return listOfMatchingChars;
+    }
+
+    List<PossibleChar> findPossibleCharsInScene(Mat imgThresh) {
+        return findPossibleCharsInScene(imgThresh, 1.0);
+    }
+
+    private List<PossibleChar> findPossibleCharsInScene(Mat imgThresh, double dblScale) {
+        long lngStart = PipelineMetrics.start();
         List<PossibleChar> listOfPossibleChars = new ArrayList<>();
 
         Mat imgThreshCopy = imgThresh.clone();
@@ -54,13 +351,18 @@ class DetectPlates {
         for (int i = 0; i < contours.size(); i++) {
             PossibleChar possibleChar = new PossibleChar(contours.get(i));
 
-            if (detectChars.checkIfPossibleChar(possibleChar))
+            if (detectChars.checkIfPossibleChar(possibleChar, dblScale))
                 listOfPossibleChars.add(possibleChar);
         }
+
+        PipelineMetrics.stop(PipelineMetrics.Stage.FIND_CHARS, lngStart);
+        PipelineMetrics.count(PipelineMetrics.Counter.CANDIDATES, listOfPossibleChars.size());
         return listOfPossibleChars;
     }
 
-    private PossiblePlate extractPlate(Mat imgOriginal, List<PossibleChar> listOfMatchingChars) {
+    // With preprocessedScene the plate's grayscale and contrast images are cropped from it as well
+    PossiblePlate extractPlate(Mat imgOriginal, PreprocessResult preprocessedScene, List<PossibleChar> listOfMatchingChars) {
+        long lngStart = PipelineMetrics.start();
         PossiblePlate possiblePlate = new PossiblePlate();
 
         Collections.sort(listOfMatchingChars);
@@ -92,20 +394,36 @@ class DetectPlates {
         // assign rotated rect member variable of possible plate
         possiblePlate.setRrLocationOfPlateInScene(new RotatedRect(p2dPlateCenter, new Size((float) intPlateWidth, (float) intPlateHeight), dblCorrectionAngleInDeg));
 
-        Mat rotationMatrix;
-        Mat imgRotated = new Mat();
-        Mat imgCropped = new Mat();
+        Mat rotationMatrix = Imgproc.getRotationMatrix2D(p2dPlateCenter, dblCorrectionAngleInDeg, 1.0);
 
-        rotationMatrix = Imgproc.getRotationMatrix2D(p2dPlateCenter, dblCorrectionAngleInDeg, 1.0);
+        Mat imgCropped = cropRotated(imgOriginal, rotationMatrix, possiblePlate.getRrLocationOfPlateInScene());
+        possiblePlate.setImgPlate(imgCropped);
+        if (preprocessedScene != null) {
+            possiblePlate.setImgGrayscale(cropRotated(preprocessedScene.getImgGrayscale(), rotationMatrix, possiblePlate.getRrLocationOfPlateInScene()));
+            possiblePlate.setImgMaxContrast(cropRotated(preprocessedScene.getImgMaxContrast(), rotationMatrix, possiblePlate.getRrLocationOfPlateInScene()));
+        }
+        possiblePlate.setDblScore(PlateScoring.score(listOfMatchingChars, imgCropped));
 
-        // rotate the entire image
-        Imgproc.warpAffine(imgOriginal, imgRotated, rotationMatrix, imgOriginal.size());
+        PipelineMetrics.stop(PipelineMetrics.Stage.EXTRACT_PLATE, lngStart);
+        PipelineMetrics.count(PipelineMetrics.Counter.PLATES, 1);
+        return possiblePlate;
+    }
 
-        // crop out the actual plate portion of the rotated image
-        Imgproc.getRectSubPix(imgRotated, possiblePlate.getRrLocationOfPlateInScene().size, possiblePlate.getRrLocationOfPlateInScene().center, imgCropped);
+    // Upright plate image of rrPlate, rotated by its angle around its center like extractPlate does
+    static Mat cropRotated(Mat img, RotatedRect rrPlate) {
+        return cropRotated(img, Imgproc.getRotationMatrix2D(rrPlate.center, rrPlate.angle, 1.0), rrPlate);
+    }
 
-        possiblePlate.setImgPlate(imgCropped);
-        return possiblePlate;
+    // Rotates and crops in one warp straight into a plate sized image, the same pixels as rotating
+    // the entire image and cutting the plate out with getRectSubPix but only the plate is warped
+    private static Mat cropRotated(Mat img, Mat rotationMatrix, RotatedRect rrPlate) {
+        Mat matToPlate = rotationMatrix.clone();
+        matToPlate.put(0, 2, rotationMatrix.get(0, 2)[0] - (rrPlate.center.x - (rrPlate.size.width - 1) / 2.0));
+        matToPlate.put(1, 2, rotationMatrix.get(1, 2)[0] - (rrPlate.center.y - (rrPlate.size.height - 1) / 2.0));
+
+        Mat imgCropped = new Mat();
+        Imgproc.warpAffine(img, imgCropped, matToPlate, rrPlate.size);
+        return imgCropped;
     }
 
 }
@@ -0,0 +1,47 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.RotatedRect;
+
+public class DetectionEvent {
+    private long lngTimestampMillis;
+    private String strSourceId;
+    private String strPlate;
+    private float[] charConfidences;
+    private RotatedRect rrLocationOfPlateInScene;
+    private long[] stageNanos;
+
+    public DetectionEvent(long lngTimestampMillis, String strSourceId, String strPlate, float[] charConfidences,
+                          RotatedRect rrLocationOfPlateInScene, long[] stageNanos) {
+        this.lngTimestampMillis = lngTimestampMillis;
+        this.strSourceId = strSourceId;
+        this.strPlate = strPlate;
+        this.charConfidences = charConfidences;
+        this.rrLocationOfPlateInScene = rrLocationOfPlateInScene;
+        this.stageNanos = stageNanos;
+    }
+
+    public long getTimestampMillis() {
+        return lngTimestampMillis;
+    }
+
+    public String getSourceId() {
+        return strSourceId;
+    }
+
+    public String getPlate() {
+        return strPlate;
+    }
+
+    public float[] getCharConfidences() {
+        return charConfidences;
+    }
+
+    public RotatedRect getRrLocationOfPlateInScene() {
+        return rrLocationOfPlateInScene;
+    }
+
+    // Plate detection and char recognition time of the frame, empty for cached results
+    public long[] getStageNanos() {
+        return stageNanos;
+    }
+}
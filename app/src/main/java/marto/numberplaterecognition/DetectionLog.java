@@ -0,0 +1,367 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Append-only log of detection events in memory-mapped, fixed size segment files.
+// Each record is an int length followed by the payload, the length is written last so a
+// tailing reader never sees a partial record. 0 means no more records yet, -1 means the
+// writer moved on to the next segment.
+class DetectionLog implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "detections-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int END_OF_SEGMENT = -1;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int FSYNC_BATCH = 256;
+    private static final long FSYNC_INTERVAL_MILLIS = 200;
+
+    private final File directory;
+    private final int intSegmentSize;
+    private final int intMaxSegments;
+
+    private final BlockingQueue<DetectionEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong lngDropped = new AtomicLong();
+    private final AtomicLong lngWritten = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile Exception failure;
+
+    private long lngSegment;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segmentBuffer;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(MAX_RECORD_SIZE);
+
+    DetectionLog(File directory, int intSegmentSize, int intMaxSegments) throws IOException {
+        if (intSegmentSize < MAX_RECORD_SIZE + 8)
+            throw new IllegalArgumentException("Segment size must be at least " + (MAX_RECORD_SIZE + 8));
+
+        this.directory = directory;
+        this.intSegmentSize = intSegmentSize;
+        this.intMaxSegments = intMaxSegments;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create log directory " + directory);
+
+        // Continue after the newest existing segment
+        List<Long> segments = listSegments(directory);
+        lngSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+        openSegment();
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "DetectionLog");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Never blocks the recognition thread, the event is dropped when the writer can't keep up
+    // or has stopped on a failure
+    boolean append(DetectionEvent event) {
+        if (closed || failure != null || !queue.offer(event)) {
+            lngDropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    long getDropped() {
+        return lngDropped.get();
+    }
+
+    long getWritten() {
+        return lngWritten.get();
+    }
+
+    // The failure that stopped the writer, null while it's running
+    Exception getFailure() {
+        return failure;
+    }
+
+    // Not interrupting the writer, an interrupt in a channel operation would close the segment
+    // under it. It notices closed within FSYNC_INTERVAL_MILLIS.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IOException("Detection log writer failed", failure);
+    }
+
+    private void writeLoop() {
+        int intUnsynced = 0;
+        long lngLastSync = System.currentTimeMillis();
+
+        try {
+            while (!closed || !queue.isEmpty()) {
+                DetectionEvent event;
+                try {
+                    event = queue.poll(FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    event = queue.poll();
+                }
+
+                if (event != null) {
+                    write(event);
+                    intUnsynced++;
+                }
+
+                // Batched fsync, by count under load and by time when idle
+                long lngNow = System.currentTimeMillis();
+                if (intUnsynced > 0 && (intUnsynced >= FSYNC_BATCH || lngNow - lngLastSync >= FSYNC_INTERVAL_MILLIS)) {
+                    segmentBuffer.force();
+                    intUnsynced = 0;
+                    lngLastSync = lngNow;
+                }
+            }
+            segmentBuffer.force();
+            closeSegment();
+        } catch (IOException | RuntimeException e) {
+            // further events are dropped, the owner finds out from getFailure() or close()
+            failure = e;
+            lngDropped.addAndGet(queue.size());
+            queue.clear();
+        }
+    }
+
+    private void write(DetectionEvent event) throws IOException {
+        recordBuffer.clear();
+        try {
+            encode(event, recordBuffer);
+        } catch (BufferOverflowException e) {
+            lngDropped.incrementAndGet();
+            return;
+        }
+        recordBuffer.flip();
+
+        // Keep room for the end of segment marker
+        if (segmentBuffer.position() + 4 + recordBuffer.remaining() + 4 > intSegmentSize) {
+            segmentBuffer.putInt(segmentBuffer.position(), END_OF_SEGMENT);
+            segmentBuffer.force();
+            closeSegment();
+            lngSegment++;
+            openSegment();
+        }
+
+        int intStart = segmentBuffer.position();
+        int intLength = recordBuffer.remaining();
+        segmentBuffer.position(intStart + 4);
+        segmentBuffer.put(recordBuffer);
+        segmentBuffer.putInt(intStart, intLength);
+
+        lngWritten.incrementAndGet();
+    }
+
+    private void openSegment() throws IOException {
+        segmentFile = new RandomAccessFile(segmentName(directory, lngSegment), "rw");
+        segmentBuffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, intSegmentSize);
+
+        // Skip records already in the segment
+        int intLength = segmentBuffer.getInt(0);
+        while (intLength > 0) {
+            segmentBuffer.position(segmentBuffer.position() + 4 + intLength);
+            intLength = segmentBuffer.position() + 4 <= intSegmentSize ? segmentBuffer.getInt(segmentBuffer.position()) : 0;
+        }
+
+        // Retention, oldest segments beyond the limit are deleted
+        List<Long> segments = listSegments(directory);
+        for (int i = 0; i < segments.size() - intMaxSegments; i++) {
+            if (!segmentName(directory, segments.get(i)).delete())
+                throw new IOException("Can't delete log segment " + segments.get(i));
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        segmentFile.close();
+    }
+
+    static File segmentName(File directory, long lngSegment) {
+        return new File(directory, String.format(Locale.US, "%s%016d%s", SEGMENT_PREFIX, lngSegment, SEGMENT_SUFFIX));
+    }
+
+    static List<Long> listSegments(File directory) {
+        List<Long> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null)
+            return segments;
+
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                segments.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        }
+        Long[] sorted = segments.toArray(new Long[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static void encode(DetectionEvent event, ByteBuffer buffer) {
+        buffer.putLong(event.getTimestampMillis());
+        putString(buffer, event.getSourceId());
+        putString(buffer, event.getPlate());
+
+        float[] charConfidences = event.getCharConfidences() == null ? new float[0] : event.getCharConfidences();
+        buffer.putShort((short) charConfidences.length);
+        for (float fltConfidence : charConfidences)
+            buffer.putFloat(fltConfidence);
+
+        RotatedRect rrLocation = event.getRrLocationOfPlateInScene();
+        buffer.putDouble(rrLocation.center.x);
+        buffer.putDouble(rrLocation.center.y);
+        buffer.putDouble(rrLocation.size.width);
+        buffer.putDouble(rrLocation.size.height);
+        buffer.putDouble(rrLocation.angle);
+
+        long[] stageNanos = event.getStageNanos() == null ? new long[0] : event.getStageNanos();
+        buffer.put((byte) stageNanos.length);
+        for (long lngNanos : stageNanos)
+            buffer.putLong(lngNanos);
+    }
+
+    private static DetectionEvent decode(ByteBuffer buffer) {
+        long lngTimestampMillis = buffer.getLong();
+        String strSourceId = getString(buffer);
+        String strPlate = getString(buffer);
+
+        float[] charConfidences = new float[buffer.getShort()];
+        for (int i = 0; i < charConfidences.length; i++)
+            charConfidences[i] = buffer.getFloat();
+
+        Point center = new Point(buffer.getDouble(), buffer.getDouble());
+        Size size = new Size(buffer.getDouble(), buffer.getDouble());
+        RotatedRect rrLocation = new RotatedRect(center, size, buffer.getDouble());
+
+        long[] stageNanos = new long[buffer.get()];
+        for (int i = 0; i < stageNanos.length; i++)
+            stageNanos[i] = buffer.getLong();
+
+        return new DetectionEvent(lngTimestampMillis, strSourceId, strPlate, charConfidences, rrLocation, stageNanos);
+    }
+
+    private static void putString(ByteBuffer buffer, String str) {
+        byte[] bytes = (str == null ? "" : str).getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // Follows the log from its oldest segment, poll returns null when caught up with the writer.
+    // intSegmentSize has to be the writer's.
+    static class Reader implements Closeable {
+        private final File directory;
+        private final int intSegmentSize;
+        private long lngSegment;
+        private RandomAccessFile segmentFile;
+        private MappedByteBuffer segmentBuffer;
+
+        Reader(File directory, int intSegmentSize) {
+            this.directory = directory;
+            this.intSegmentSize = intSegmentSize;
+            List<Long> segments = listSegments(directory);
+            lngSegment = segments.isEmpty() ? 0 : segments.get(0);
+        }
+
+        DetectionEvent poll() throws IOException {
+            while (true) {
+                if (segmentBuffer == null && !openSegment())
+                    return null;
+
+                int intPosition = segmentBuffer.position();
+                int intLength = readLength(intPosition);
+
+                if (intLength > 0) {
+                    ByteBuffer record = segmentBuffer.duplicate();
+                    record.position(intPosition + 4);
+                    record.limit(intPosition + 4 + intLength);
+                    segmentBuffer.position(intPosition + 4 + intLength);
+                    return decode(record);
+                }
+
+                // Writer is still in this segment
+                if (intLength == 0 && !segmentName(directory, lngSegment + 1).exists())
+                    return null;
+
+                // Records written between reading the length and seeing the next segment
+                if (readLength(intPosition) > 0)
+                    continue;
+
+                close();
+                lngSegment++;
+            }
+        }
+
+        private int readLength(int intPosition) {
+            return intPosition + 4 <= segmentBuffer.capacity() ? segmentBuffer.getInt(intPosition) : END_OF_SEGMENT;
+        }
+
+        private boolean openSegment() throws IOException {
+            File file = segmentName(directory, lngSegment);
+            if (!file.exists()) {
+                // Skip segments removed by retention
+                List<Long> segments = listSegments(directory);
+                if (segments.isEmpty() || segments.get(segments.size() - 1) < lngSegment)
+                    return false;
+                for (long lngExisting : segments) {
+                    if (lngExisting > lngSegment) {
+                        lngSegment = lngExisting;
+                        break;
+                    }
+                }
+                file = segmentName(directory, lngSegment);
+            }
+
+            // A segment the writer has just created may not be extended to its full size yet
+            RandomAccessFile openedFile = new RandomAccessFile(file, "r");
+            if (openedFile.length() < intSegmentSize) {
+                openedFile.close();
+                return false;
+            }
+            segmentFile = openedFile;
+            segmentBuffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, intSegmentSize);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (segmentFile != null)
+                segmentFile.close();
+            segmentFile = null;
+            segmentBuffer = null;
+        }
+    }
+}
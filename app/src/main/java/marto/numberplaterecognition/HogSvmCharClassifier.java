@@ -0,0 +1,150 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.ml.Ml;
+import org.opencv.ml.SVM;
+import org.opencv.objdetect.HOGDescriptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+// HOG features of the glyph and a linear SVM, prediction cost doesn't grow with the training set
+class HogSvmCharClassifier implements CharClassifier {
+    // 5x5 cells in 10x10 blocks, 2x3 blocks of 4 cells with 9 bins = 216 features
+    private static final Size WIN_SIZE = new Size(CharTrainingData.GLYPH_WIDTH, CharTrainingData.GLYPH_HEIGHT);
+    private static final Size BLOCK_SIZE = new Size(10, 10);
+    private static final Size BLOCK_STRIDE = new Size(10, 10);
+    private static final Size CELL_SIZE = new Size(5, 5);
+    private static final int HISTOGRAM_BINS = 9;
+
+    private static final double SVM_C = 1.0;
+    private static final int SVM_MAX_ITERATIONS = 1000;
+
+    private final HOGDescriptor hogDescriptor;
+    private final SVM svm;
+
+    // One-vs-one decision functions of the linear SVM, kept in Java to count votes for the confidence
+    private final char[] classLabels;
+    private final Mat matDecisionWeights;
+    private final double[] decisionRhos;
+
+    private HogSvmCharClassifier(HOGDescriptor hogDescriptor, SVM svm, char[] classLabels) {
+        this.hogDescriptor = hogDescriptor;
+        this.svm = svm;
+        this.classLabels = classLabels;
+
+        // A linear SVM keeps one compressed support vector per decision function
+        matDecisionWeights = svm.getSupportVectors();
+        decisionRhos = new double[matDecisionWeights.rows()];
+        for (int i = 0; i < decisionRhos.length; i++)
+            decisionRhos[i] = svm.getDecisionFunction(i, new Mat(), new Mat());
+    }
+
+    static HogSvmCharClassifier train(CharTrainingData trainingData) {
+        HOGDescriptor hogDescriptor = createHogDescriptor();
+
+        Mat matFeatures = new Mat(trainingData.size(), (int) hogDescriptor.getDescriptorSize(), CvType.CV_32F);
+        Mat matLabels = new Mat(trainingData.size(), 1, CvType.CV_32S);
+        TreeSet<Character> labels = new TreeSet<>();
+        for (int i = 0; i < trainingData.size(); i++) {
+            computeFeatures(hogDescriptor, trainingData.getGlyph(i)).copyTo(matFeatures.row(i));
+            matLabels.put(i, 0, trainingData.getLabel(i));
+            labels.add(trainingData.getLabel(i));
+        }
+
+        SVM svm = SVM.create();
+        svm.setType(SVM.C_SVC);
+        svm.setKernel(SVM.LINEAR);
+        svm.setC(SVM_C);
+        svm.setTermCriteria(new TermCriteria(TermCriteria.MAX_ITER + TermCriteria.EPS, SVM_MAX_ITERATIONS, 1e-6));
+        svm.train(matFeatures, Ml.ROW_SAMPLE, matLabels);
+
+        // SVM orders its classes by label
+        char[] classLabels = new char[labels.size()];
+        int k = 0;
+        for (char chrLabel : labels)
+            classLabels[k++] = chrLabel;
+
+        return new HogSvmCharClassifier(hogDescriptor, svm, classLabels);
+    }
+
+    // The SVM in OpenCV's own format, the format picked by the extension. The class labels aren't
+    // in it, the caller keeps them.
+    void save(String strPath) {
+        svm.save(strPath);
+    }
+
+    // classLabels as returned by getClassLabels() of the saved classifier
+    static HogSvmCharClassifier load(String strPath, char[] classLabels) {
+        SVM svm = SVM.load(strPath);
+        if (!svm.isTrained())
+            throw new IllegalArgumentException("No trained SVM in " + strPath);
+        return new HogSvmCharClassifier(createHogDescriptor(), svm, classLabels);
+    }
+
+    @Override
+    public Result classify(Mat imgGlyph) {
+        return classifyAll(Collections.singletonList(imgGlyph)).get(0);
+    }
+
+    @Override
+    public List<Result> classifyAll(List<Mat> listOfGlyphs) {
+        Mat matFeatures = new Mat(listOfGlyphs.size(), (int) hogDescriptor.getDescriptorSize(), CvType.CV_32F);
+        for (int i = 0; i < listOfGlyphs.size(); i++)
+            computeFeatures(hogDescriptor, listOfGlyphs.get(i)).copyTo(matFeatures.row(i));
+
+        // All decision values in one product, one row per glyph
+        Mat matDecisionValues = new Mat();
+        Core.gemm(matFeatures, matDecisionWeights, 1.0, new Mat(), 0.0, matDecisionValues, Core.GEMM_2_T);
+
+        List<Result> listOfResults = new ArrayList<>(listOfGlyphs.size());
+        float[] decisionValues = new float[decisionRhos.length];
+        for (int intGlyph = 0; intGlyph < listOfGlyphs.size(); intGlyph++) {
+            matDecisionValues.get(intGlyph, 0, decisionValues);
+
+            // one-vs-one voting the same way SVM::predict does
+            int[] votes = new int[classLabels.length];
+            int intDecision = 0;
+            for (int i = 0; i < classLabels.length; i++) {
+                for (int j = i + 1; j < classLabels.length; j++, intDecision++)
+                    votes[decisionValues[intDecision] - decisionRhos[intDecision] > 0 ? i : j]++;
+            }
+
+            int intBest = 0;
+            for (int i = 1; i < votes.length; i++) {
+                if (votes[i] > votes[intBest])
+                    intBest = i;
+            }
+
+            // A clear winner beats every other class
+            listOfResults.add(new Result(classLabels[intBest], votes[intBest] / (float) (classLabels.length - 1)));
+        }
+        return listOfResults;
+    }
+
+    SVM getSvm() {
+        return svm;
+    }
+
+    char[] getClassLabels() {
+        return classLabels.clone();
+    }
+
+    private static HOGDescriptor createHogDescriptor() {
+        return new HOGDescriptor(WIN_SIZE, BLOCK_SIZE, BLOCK_STRIDE, CELL_SIZE, HISTOGRAM_BINS);
+    }
+
+    // 1 x descriptor size CV_32F
+    private static Mat computeFeatures(HOGDescriptor hogDescriptor, Mat imgGlyph) {
+        MatOfFloat descriptors = new MatOfFloat();
+        hogDescriptor.compute(imgGlyph, descriptors);
+        return descriptors.reshape(1, 1);
+    }
+}
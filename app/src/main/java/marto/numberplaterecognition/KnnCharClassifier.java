@@ -0,0 +1,75 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.ml.KNearest;
+import org.opencv.ml.Ml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Nearest neighbour over the raw glyph pixels
+class KnnCharClassifier implements CharClassifier {
+    // Confidence is the share of K nearest neighbours agreeing with the nearest one
+    private static final int K_NEIGHBOURS = 3;
+    // Squared distance of a binary glyph to a training sample is 255^2 per differing pixel
+    private static final double MAX_DIFFERING_PIXELS_FRACTION = 0.3;
+
+    private final KNearest kNearest;
+
+    KnnCharClassifier(KNearest kNearest) {
+        this.kNearest = kNearest;
+    }
+
+    static KnnCharClassifier train(CharTrainingData trainingData) {
+        KNearest kNearest = KNearest.create();
+        kNearest.setDefaultK(1);
+        kNearest.train(trainingData.getSamples(), Ml.ROW_SAMPLE, trainingData.getLabels());
+        return new KnnCharClassifier(kNearest);
+    }
+
+    @Override
+    public Result classify(Mat imgGlyph) {
+        return classifyAll(Collections.singletonList(imgGlyph)).get(0);
+    }
+
+    @Override
+    public List<Result> classifyAll(List<Mat> listOfGlyphs) {
+        // one flattened float row per glyph, necessary for call to findNearest
+        Mat matGlyphsFlattenedFloat = new Mat(listOfGlyphs.size(), CharTrainingData.GLYPH_SIZE, CvType.CV_32F);
+        for (int i = 0; i < listOfGlyphs.size(); i++)
+            listOfGlyphs.get(i).reshape(1, 1).convertTo(matGlyphsFlattenedFloat.row(i), CvType.CV_32FC1);
+
+        Mat matCurrentChars = new Mat(0, 0, CvType.CV_32F);
+        Mat matNeighborResponses = new Mat();
+        Mat matDistances = new Mat();
+
+        kNearest.findNearest(matGlyphsFlattenedFloat, K_NEIGHBOURS, matCurrentChars, matNeighborResponses, matDistances);
+
+        List<Result> listOfResults = new ArrayList<>(listOfGlyphs.size());
+        float[] neighborResponses = new float[K_NEIGHBOURS];
+        float[] distances = new float[K_NEIGHBOURS];
+        for (int i = 0; i < listOfGlyphs.size(); i++) {
+            matNeighborResponses.get(i, 0, neighborResponses);
+            matDistances.get(i, 0, distances);
+
+            // The nearest neighbour decides the char, the others only its confidence
+            listOfResults.add(new Result((char) ((int) neighborResponses[0]), confidence(neighborResponses, distances)));
+        }
+        return listOfResults;
+    }
+
+    static float confidence(float[] neighborResponses, float[] distances) {
+        double dblDifferingPixelsFraction = distances[0] / (255.0 * 255.0 * CharTrainingData.GLYPH_SIZE);
+        if (dblDifferingPixelsFraction > MAX_DIFFERING_PIXELS_FRACTION)
+            return 0;
+
+        int intAgreeing = 0;
+        for (float fltResponse : neighborResponses) {
+            if (fltResponse == neighborResponses[0])
+                intAgreeing++;
+        }
+        return (float) intAgreeing / neighborResponses.length;
+    }
+}
@@ -1,7 +1,10 @@
 package marto.numberplaterecognition;
 
 import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -17,25 +20,22 @@ import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.android.Utils;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.ml.DTrees;
-import org.opencv.ml.KNearest;
-import org.opencv.ml.Ml;
 import org.opencv.ml.NormalBayesClassifier;
 import org.opencv.ml.SVM;
 import org.opencv.ml.TrainData;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -43,9 +43,30 @@ public class MainActivity extends AppCompatActivity {
     private ImageView imageView;
     private ProgressDialog pd;
 
-    public static KNearest kNearest;
+    private enum ClassifierBackend {
+        // nearest neighbour over raw pixels
+        KNN,
+        // the same with CV_8U training glyphs, a quarter of the memory traffic
+        KNN_8U,
+        // nearest neighbour over the first PCA_COMPONENTS principal components
+        PCA_KNN,
+        // HOG features with a linear SVM
+        HOG_SVM
+    }
+
+    private static final ClassifierBackend CLASSIFIER_BACKEND = ClassifierBackend.KNN;
+    private static final int PCA_COMPONENTS = 48;
+    private static final String CHAR_SNAPSHOT_FILE = "chars.snapshot";
+    private static final String CHAR_MODEL_FILE = "chars.model";
+
+    private PlateRecognizer plateRecognizer = new PlateRecognizer();
+    // Gallery detection runs here, one image at a time, so the UI never waits for the classifier
+    private final ExecutorService detectionExecutor = Executors.newSingleThreadExecutor();
 
     public static final int PICK_IMAGE = 1;
+    // Gallery images are decoded down to about this size for detection
+    private static final int DETECTION_SIZE = 1024;
+    private static final long METRICS_DUMP_PERIOD_SECONDS = 60;
 
     private boolean openCV = false;
 
@@ -66,6 +87,19 @@ public class MainActivity extends AppCompatActivity {
                 startActivityForResult(Intent.createChooser(intent, "Select image"), PICK_IMAGE);
             }
         });
+
+        PipelineMetrics.startPeriodicDump(METRICS_DUMP_PERIOD_SECONDS, new PipelineMetrics.Listener() {
+            @Override
+            public void onReport(String report) {
+                Log.i("PipelineMetrics", report);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        detectionExecutor.shutdownNow();
+        super.onDestroy();
     }
 
     @Override
@@ -87,8 +121,8 @@ public class MainActivity extends AppCompatActivity {
                 // OpenCV loaded successfully
                 case LoaderCallbackInterface.SUCCESS: {
                     openCV = true;
-                    // KNN training
-                    loadKNNDataAndTrainKNN();
+                    // classifier training, only the first time in the process and in the background
+                    CharClassifiers.initialize(classifierLoader(getApplicationContext()));
                 }
                 break;
                 default: {
@@ -102,104 +136,212 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (requestCode == PICK_IMAGE && data.getData() != null) {
-            try {
-                InputStream image = getContentResolver().openInputStream(data.getData());
-                if (openCV)
-                    detectInImage(image);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
+        if (requestCode == PICK_IMAGE && data.getData() != null && openCV) {
+            final Uri uriImage = data.getData();
+            // the first image after start can wait for the classifier to finish training
+            plateText.setText(CharClassifiers.isReady() ? "Detecting..." : "Loading the char model...");
+            detectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        detectInImage(uriImage);
+                    } catch (IOException | RuntimeException e) {
+                        Log.e("Detection", "Can't detect plates in " + uriImage, e);
+                        showPlateText("Can't read this image");
+                    }
+                }
+            });
         }
     }
 
-    public void detectInImage(InputStream image) {
+    // Plates are found on a downscaled decode and read from their regions at full resolution.
+    // Runs on the detection thread, results are posted to the UI thread.
+    private void detectInImage(Uri uriImage) throws IOException {
 
+        // Size only, for a sample size that keeps the decoded image just above the detection size
         BitmapFactory.Options bmpFactoryOptions = new BitmapFactory.Options();
+        bmpFactoryOptions.inJustDecodeBounds = true;
+        decodeBitmap(uriImage, bmpFactoryOptions);
+        int intSampleSize = 1;
+        while (Math.max(bmpFactoryOptions.outWidth, bmpFactoryOptions.outHeight) / (intSampleSize * 2) >= DETECTION_SIZE)
+            intSampleSize *= 2;
+
+        bmpFactoryOptions.inJustDecodeBounds = false;
+        bmpFactoryOptions.inSampleSize = intSampleSize;
         bmpFactoryOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
 
-        Bitmap bmp = BitmapFactory.decodeStream(image, null, bmpFactoryOptions);
+        final Bitmap bmp = decodeBitmap(uriImage, bmpFactoryOptions);
         Mat src = new Mat();
         Utils.bitmapToMat(bmp, src);
 
         // Show Image for detect
-        imageView.setImageBitmap(bmp);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                imageView.setImageBitmap(bmp);
+            }
+        });
 
         Mat originalImg = new Mat();
         Imgproc.cvtColor(src, originalImg, Imgproc.COLOR_BGRA2BGR);
 
-        // If image is big resize for faster computing
-        if (originalImg.size().height > 1024 || originalImg.size().width > 1024) {
-            double scale = 1024 / originalImg.size().height ;
-            Imgproc.resize(originalImg, originalImg, new Size(), scale, scale);
+        List<PossiblePlate> possiblePlates;
+        BitmapRegionSource regionSource = openRegionSource(uriImage);
+        if (regionSource == null) {
+            // no region decoder for this format, read the plates from the decoded image
+            possiblePlates = plateRecognizer.recognize(originalImg, "gallery");
+        } else {
+            try {
+                possiblePlates = plateRecognizer.recognizeAtFullResolution(originalImg, regionSource, "gallery");
+            } finally {
+                regionSource.close();
+            }
         }
 
-        DetectPlates detectPlates = new DetectPlates();
-        DetectChars detectChars = new DetectChars();
-
-        // detect plates
-        List<PossiblePlate> possiblePlates = detectPlates.detectPlatesInScene(originalImg);
-        // detect chars in plates
-        possiblePlates = detectChars.detectCharsInPlates(possiblePlates);
-
         if (possiblePlates.isEmpty()) {
-            plateText.setText("No number plates detected");
+            showPlateText("No number plates detected");
         } else {
-            // Sort possible plates in DESCENDING order (plate with most chars first)
-            Collections.sort(possiblePlates);
             PossiblePlate licPlate = possiblePlates.get(0);
 
             if (licPlate.getStrChars().isEmpty())
-                plateText.setText("No number plate found");
+                showPlateText("No number plate found");
             else
-                plateText.setText(licPlate.getStrCharsReverse());
+                showPlateText(licPlate.getStrCharsReverse());
         }
     }
 
-    public void loadKNNDataAndTrainKNN() {
-        kNearest = KNearest.create();
+    private void showPlateText(final String strText) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                plateText.setText(strText);
+            }
+        });
+    }
 
-        // read in training classifications
-        Mat matClassificationInts = new Mat(180, 1, CvType.CV_32F);
-        int k = 0;
+    // BitmapRegionDecoder reads JPEG, PNG and WebP only, null for any other format
+    private BitmapRegionSource openRegionSource(Uri uriImage) throws IOException {
+        InputStream image = getContentResolver().openInputStream(uriImage);
         try {
-            InputStream inputStream = getAssets().open("classifications.txt");
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, "UTF-8");
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            String line = bufferedReader.readLine();
-            while (line != null) {
-                // Read 180 rows in 1 column
-                matClassificationInts.put(k++, 0, Integer.valueOf(line));
-                line = bufferedReader.readLine();
-            }
-        } catch (IOException ignored) {
+            return new BitmapRegionSource(image);
+        } catch (IOException e) {
+            Log.w("Detection", "No region decoder for " + uriImage + ", using the downscaled image", e);
+            return null;
+        } finally {
+            image.close();
         }
+    }
 
-        // read in training images file
-        List<Float> values = null;
+    private Bitmap decodeBitmap(Uri uriImage, BitmapFactory.Options bmpFactoryOptions) throws IOException {
+        InputStream image = getContentResolver().openInputStream(uriImage);
         try {
-            InputStream inputStream = getAssets().open("images.txt");
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, "UTF-8");
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            values = new ArrayList<>();
-            String line = bufferedReader.readLine();
-            while (line != null) {
-                for (String s : line.split(" "))
-                    values.add(Float.valueOf(s));
-                line = bufferedReader.readLine();
+            return BitmapFactory.decodeStream(image, null, bmpFactoryOptions);
+        } finally {
+            image.close();
+        }
+    }
+
+    // Static so the background training holds on to the application context only, not the activity
+    private static Callable<CharClassifier> classifierLoader(final Context context) {
+        return new Callable<CharClassifier>() {
+            @Override
+            public CharClassifier call() throws IOException {
+                try {
+                    return loadTrainingDataAndTrainClassifier(context);
+                } catch (IOException e) {
+                    Log.e("Classifier", "Can't load training data", e);
+                    throw e;
+                }
             }
-        } catch (IOException ignored) {
+        };
+    }
+
+    private static CharClassifier loadTrainingDataAndTrainClassifier(Context context) throws IOException {
+        long lngApkStamp = readApkStamp(context);
+        File fileModel = new File(context.getFilesDir(), CHAR_MODEL_FILE);
+
+        // Trained by the same install, so by the same backend, and neither the assets nor the
+        // training snapshot are read
+        if (lngApkStamp != 0) {
+            CharClassifier charClassifier = TrainedCharModel.readIfStamp(fileModel, lngApkStamp);
+            if (charClassifier != null)
+                return charClassifier;
         }
 
-        // read multiple images into single image
-        Mat matTrainingImagesAsFlattenedFloats = new Mat(180, 600, CvType.CV_32F);
-        k = 0;
-        for (int i = 0; i < 180; ++i)
-            for (int j = 0; j < 600; ++j)
-                matTrainingImagesAsFlattenedFloats.put(i, j, values.get(k++));
+        CharTrainingData trainingData = loadTrainingData(context, lngApkStamp);
+        CharClassifier charClassifier;
+        switch (CLASSIFIER_BACKEND) {
+            case KNN_8U:
+                charClassifier = QuantizedKnnCharClassifier.train(trainingData);
+                break;
+            case PCA_KNN:
+                charClassifier = PcaKnnCharClassifier.train(trainingData, PCA_COMPONENTS);
+                break;
+            case HOG_SVM:
+                charClassifier = HogSvmCharClassifier.train(trainingData);
+                break;
+            default:
+                charClassifier = KnnCharClassifier.train(trainingData);
+                break;
+        }
+
+        if (TrainedCharModel.isSaved(charClassifier) && lngApkStamp != 0) {
+            try {
+                TrainedCharModel.write(fileModel, charClassifier, lngApkStamp);
+            } catch (IOException e) {
+                Log.w("Classifier", "Can't write trained model", e);
+            }
+        }
+        return charClassifier;
+    }
+
+    // Install time of the APK, 0 if unknown
+    private static long readApkStamp(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w("Classifier", "Can't read install time, checking the snapshot by asset hash", e);
+            return 0;
+        }
+    }
+
+    // From the snapshot in app storage when the assets are the same, else parsed and snapshotted
+    private static CharTrainingData loadTrainingData(Context context, long lngApkStamp) throws IOException {
+        File fileSnapshot = new File(context.getFilesDir(), CHAR_SNAPSHOT_FILE);
+
+        // Same install as the snapshot, the assets aren't even opened
+        if (lngApkStamp != 0) {
+            CharTrainingData trainingData = CharModelSnapshot.readIfStamp(fileSnapshot, lngApkStamp);
+            if (trainingData != null)
+                return trainingData;
+        }
+
+        AssetManager assets = context.getAssets();
+        byte[] classifications = readAsset(assets, "classifications.txt");
+        byte[] images = readAsset(assets, "images.txt");
+        long lngAssetHash = CharModelSnapshot.hash(classifications, images);
+
+        CharTrainingData trainingData = CharModelSnapshot.readIfAssetHash(fileSnapshot, lngAssetHash);
+        if (trainingData == null)
+            trainingData = CharTrainingData.load(new ByteArrayInputStream(classifications), new ByteArrayInputStream(images));
+
+        try {
+            CharModelSnapshot.write(fileSnapshot, trainingData, lngAssetHash, lngApkStamp);
+        } catch (IOException e) {
+            Log.w("Classifier", "Can't write training snapshot", e);
+        }
+        return trainingData;
+    }
 
-        kNearest.setDefaultK(1);
-        kNearest.train(matTrainingImagesAsFlattenedFloats, Ml.ROW_SAMPLE, matClassificationInts);
+    private static byte[] readAsset(AssetManager assets, String strName) throws IOException {
+        InputStream inputStream = assets.open(strName);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int intRead;
+        while ((intRead = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, intRead);
+        inputStream.close();
+        return outputStream.toByteArray();
     }
 
 }
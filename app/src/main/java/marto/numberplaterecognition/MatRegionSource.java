@@ -0,0 +1,64 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+// RegionSource over an image file for the JVM. imgcodecs can't decode a region alone, so the full
+// image is decoded on the first region asked for and kept, a scene without plates never pays for it.
+class MatRegionSource implements RegionSource {
+    private final String strPath;
+    private final Size sizeFull;
+    private Mat imgFull;
+
+    private MatRegionSource(String strPath, Size sizeFull) {
+        this.strPath = strPath;
+        this.sizeFull = sizeFull;
+    }
+
+    // The decoder does the downscaling, intReduction is 1, 2, 4 or 8
+    static Mat readReduced(String strPath, int intReduction) {
+        switch (intReduction) {
+            case 2:
+                return Imgcodecs.imread(strPath, Imgcodecs.IMREAD_REDUCED_COLOR_2);
+            case 4:
+                return Imgcodecs.imread(strPath, Imgcodecs.IMREAD_REDUCED_COLOR_4);
+            case 8:
+                return Imgcodecs.imread(strPath, Imgcodecs.IMREAD_REDUCED_COLOR_8);
+            default:
+                return Imgcodecs.imread(strPath, Imgcodecs.IMREAD_COLOR);
+        }
+    }
+
+    // imgReduced from readReduced of the same file with intReduction
+    static MatRegionSource of(String strPath, Mat imgReduced, int intReduction) {
+        return new MatRegionSource(strPath, new Size(imgReduced.cols() * intReduction, imgReduced.rows() * intReduction));
+    }
+
+    // Already decoded at full resolution
+    static MatRegionSource of(Mat imgFull) {
+        MatRegionSource source = new MatRegionSource(null, imgFull.size());
+        source.imgFull = imgFull;
+        return source;
+    }
+
+    @Override
+    public Size getFullSize() {
+        return imgFull != null ? imgFull.size() : sizeFull;
+    }
+
+    @Override
+    public synchronized Mat decodeRegion(Rect rect) {
+        if (imgFull == null)
+            imgFull = Imgcodecs.imread(strPath, Imgcodecs.IMREAD_COLOR);
+        return new Mat(imgFull, clip(rect, imgFull.size()));
+    }
+
+    // reduced decoding rounds the size up, so the estimated full size can be off by a few pixels
+    private static Rect clip(Rect rect, Size size) {
+        int x = Math.max(0, Math.min(rect.x, (int) size.width - 1));
+        int y = Math.max(0, Math.min(rect.y, (int) size.height - 1));
+        return new Rect(x, y, Math.min(rect.width, (int) size.width - x), Math.min(rect.height, (int) size.height - y));
+    }
+}
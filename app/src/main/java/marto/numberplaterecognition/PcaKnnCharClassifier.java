@@ -0,0 +1,116 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.ml.KNearest;
+import org.opencv.ml.Ml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Nearest neighbour like KnnCharClassifier, but on the first principal components of the glyph
+// pixels instead of all 600 of them. Distances in the components alone are smaller than the pixel
+// distances, a glyph unlike any char can land close to one. The part of the glyph the components
+// don't capture is added back to every distance, as if the training glyphs had none, so the
+// confidence cutoff of KnnCharClassifier applies to about the same distances.
+class PcaKnnCharClassifier implements CharClassifier {
+    private static final int K_NEIGHBOURS = 3;
+
+    private final KNearest kNearest;
+    // 1 x 600 mean glyph and components x 600 eigenvectors, computed from the training glyphs
+    private final Mat matMean;
+    private final Mat matEigenvectors;
+    // training glyphs projected on the eigenvectors and their labels, kept for saving the model
+    private final Mat matProjected;
+    private final Mat matLabels;
+
+    private PcaKnnCharClassifier(Mat matMean, Mat matEigenvectors, Mat matProjected, Mat matLabels) {
+        this.matMean = matMean;
+        this.matEigenvectors = matEigenvectors;
+        this.matProjected = matProjected;
+        this.matLabels = matLabels;
+
+        kNearest = KNearest.create();
+        kNearest.setDefaultK(1);
+        kNearest.train(matProjected, Ml.ROW_SAMPLE, matLabels);
+    }
+
+    static PcaKnnCharClassifier train(CharTrainingData trainingData, int intComponents) {
+        Mat matSamples = trainingData.getSamples();
+
+        Mat matMean = new Mat();
+        Mat matEigenvectors = new Mat();
+        Core.PCACompute(matSamples, matMean, matEigenvectors, intComponents);
+
+        Mat matProjected = new Mat();
+        Core.PCAProject(matSamples, matMean, matEigenvectors, matProjected);
+
+        return new PcaKnnCharClassifier(matMean, matEigenvectors, matProjected, trainingData.getLabels());
+    }
+
+    // From the matrices of a saved classifier, no PCA is computed and the training glyphs aren't needed
+    static PcaKnnCharClassifier load(Mat matMean, Mat matEigenvectors, Mat matProjected, Mat matLabels) {
+        return new PcaKnnCharClassifier(matMean, matEigenvectors, matProjected, matLabels);
+    }
+
+    @Override
+    public Result classify(Mat imgGlyph) {
+        return classifyAll(Collections.singletonList(imgGlyph)).get(0);
+    }
+
+    @Override
+    public List<Result> classifyAll(List<Mat> listOfGlyphs) {
+        Mat matGlyphsFlattenedFloat = new Mat(listOfGlyphs.size(), CharTrainingData.GLYPH_SIZE, CvType.CV_32F);
+        for (int i = 0; i < listOfGlyphs.size(); i++)
+            listOfGlyphs.get(i).reshape(1, 1).convertTo(matGlyphsFlattenedFloat.row(i), CvType.CV_32FC1);
+
+        // projected once per glyph, the search then only runs over the components
+        Mat matGlyphsProjected = new Mat();
+        Core.PCAProject(matGlyphsFlattenedFloat, matMean, matEigenvectors, matGlyphsProjected);
+
+        Mat matCurrentChars = new Mat(0, 0, CvType.CV_32F);
+        Mat matNeighborResponses = new Mat();
+        Mat matDistances = new Mat();
+
+        kNearest.findNearest(matGlyphsProjected, K_NEIGHBOURS, matCurrentChars, matNeighborResponses, matDistances);
+
+        List<Result> listOfResults = new ArrayList<>(listOfGlyphs.size());
+        float[] neighborResponses = new float[K_NEIGHBOURS];
+        float[] distances = new float[K_NEIGHBOURS];
+        for (int i = 0; i < listOfGlyphs.size(); i++) {
+            matNeighborResponses.get(i, 0, neighborResponses);
+            matDistances.get(i, 0, distances);
+
+            // squared reconstruction error, ||x - mean||^2 - ||projection||^2 as the eigenvectors are orthonormal
+            double dblResidual = Core.norm(matGlyphsFlattenedFloat.row(i), matMean, Core.NORM_L2SQR) -
+                    Core.norm(matGlyphsProjected.row(i), Core.NORM_L2SQR);
+            for (int j = 0; j < distances.length; j++)
+                distances[j] += (float) Math.max(0, dblResidual);
+
+            listOfResults.add(new Result((char) ((int) neighborResponses[0]), KnnCharClassifier.confidence(neighborResponses, distances)));
+        }
+        return listOfResults;
+    }
+
+    int getComponents() {
+        return matEigenvectors.rows();
+    }
+
+    Mat getMean() {
+        return matMean;
+    }
+
+    Mat getEigenvectors() {
+        return matEigenvectors;
+    }
+
+    Mat getProjected() {
+        return matProjected;
+    }
+
+    Mat getLabels() {
+        return matLabels;
+    }
+}
@@ -0,0 +1,192 @@
+package marto.numberplaterecognition;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Low overhead timers and counters for the recognition pipeline, cheap enough to leave on
+final class PipelineMetrics {
+
+    enum Stage {
+        PREPROCESS,
+        FIND_CHARS,
+        MATCH_CHARS,
+        EXTRACT_PLATE,
+        CHAR_PREPROCESS,
+        CLASSIFY
+    }
+
+    enum Counter {
+        CANDIDATES,
+        GROUPS,
+        PLATES,
+        PRUNED_PLATES,
+        CHARS,
+        CACHE_HITS,
+        CACHE_MISSES,
+        // recognitions cut short by their time budget
+        DEADLINE_HITS,
+        // recognitions ended by a confident read in single best plate mode
+        EARLY_EXITS
+    }
+
+    interface Listener {
+        void onReport(String report);
+    }
+
+    private static final Histogram[] histograms = new Histogram[Stage.values().length];
+    private static final LongAdder[] counters = new LongAdder[Counter.values().length];
+
+    private static volatile boolean enabled = true;
+    private static ScheduledExecutorService dumpExecutor;
+
+    static {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+    }
+
+    private PipelineMetrics() {
+    }
+
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void stop(Stage stage, long lngStartNanos) {
+        if (enabled)
+            histograms[stage.ordinal()].record(System.nanoTime() - lngStartNanos);
+    }
+
+    static void count(Counter counter, long lngAmount) {
+        if (enabled)
+            counters[counter.ordinal()].add(lngAmount);
+    }
+
+    static void setEnabled(boolean enabled) {
+        PipelineMetrics.enabled = enabled;
+    }
+
+    static long getCount(Stage stage) {
+        return histograms[stage.ordinal()].getCount();
+    }
+
+    static double getMeanMillis(Stage stage) {
+        return histograms[stage.ordinal()].getMeanNanos() / 1e6;
+    }
+
+    // Upper bound of the histogram bucket holding the percentile, so within a factor of two
+    static double getPercentileMillis(Stage stage, double dblPercentile) {
+        return histograms[stage.ordinal()].getPercentileNanos(dblPercentile) / 1e6;
+    }
+
+    static long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    static void reset() {
+        for (Histogram histogram : histograms)
+            histogram.reset();
+        for (LongAdder counter : counters)
+            counter.reset();
+    }
+
+    static String report() {
+        StringBuilder report = new StringBuilder();
+
+        for (Stage stage : Stage.values()) {
+            report.append(String.format(Locale.US, "%-16s n=%d mean=%.2fms p50<=%.2fms p99<=%.2fms%n",
+                    stage, getCount(stage), getMeanMillis(stage),
+                    getPercentileMillis(stage, 0.5), getPercentileMillis(stage, 0.99)));
+        }
+        for (Counter counter : Counter.values())
+            report.append(String.format(Locale.US, "%-16s %d%n", counter, getCount(counter)));
+
+        return report.toString();
+    }
+
+    static synchronized void startPeriodicDump(long lngPeriodSeconds, final Listener listener) {
+        if (dumpExecutor != null)
+            return;
+
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PipelineMetrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumpExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                listener.onReport(report());
+            }
+        }, lngPeriodSeconds, lngPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    static synchronized void stopPeriodicDump() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdown();
+            dumpExecutor = null;
+        }
+    }
+
+    // Lock-free histogram with power of two buckets of nanoseconds
+    private static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long lngNanos) {
+            // bucket i holds durations in [2^i, 2^(i+1)) nanoseconds
+            int intBucket = Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(0, lngNanos)));
+            buckets.incrementAndGet(intBucket);
+            count.increment();
+            totalNanos.add(lngNanos);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanNanos() {
+            long lngCount = count.sum();
+            return lngCount == 0 ? 0 : (double) totalNanos.sum() / lngCount;
+        }
+
+        double getPercentileNanos(double dblPercentile) {
+            long lngCount = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                lngCount += counts[i];
+            }
+            if (lngCount == 0)
+                return 0;
+
+            long lngRank = (long) Math.ceil(dblPercentile * lngCount);
+            long lngSeen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                lngSeen += counts[i];
+                if (lngSeen >= lngRank)
+                    return Math.pow(2, i + 1);
+            }
+            return Math.pow(2, BUCKETS);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets.set(i, 0);
+            count.reset();
+            totalNanos.reset();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Recognition of a stream split into stages, each on its own thread and connected by bounded
+// rings, so frame N+1 is preprocessed while frame N is still in char recognition. A full ring
+// makes the stage before it wait, down to submit(), so a slow stage throttles the source
+// instead of frames piling up. Results come out in submit order on the char recognition thread.
+// A frame that fails in any stage skips the stages after it and comes out through onFailed,
+// in order with the others. T is whatever the caller needs to match a result to its frame.
+class PipelinedRecognizer<T> implements Closeable {
+
+    interface Listener<T> {
+        void onRecognized(T frameKey, List<PossiblePlate> possiblePlates);
+
+        void onFailed(T frameKey, RuntimeException e);
+    }
+
+    private static class Job<T> {
+        private final T frameKey;
+        private Mat imgScene;
+        private PreprocessResult preprocessed;
+        private List<List<PossibleChar>> listOfMatchingChars;
+        private List<PossiblePlate> listOfPossiblePlates;
+        private RuntimeException failure;
+
+        private Job(T frameKey, Mat imgScene) {
+            this.frameKey = frameKey;
+            this.imgScene = imgScene;
+        }
+    }
+
+    private abstract class Stage implements Runnable {
+        private final SpscRingBuffer<Job<T>> input;
+        private final SpscRingBuffer<Job<T>> output;
+
+        Stage(SpscRingBuffer<Job<T>> input, SpscRingBuffer<Job<T>> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        abstract void process(Job<T> job);
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Job<T> job = input.take();
+                    if (job != endOfStream && job.failure == null) {
+                        try {
+                            process(job);
+                        } catch (RuntimeException e) {
+                            fail(job, e);
+                        }
+                    }
+                    if (output != null)
+                        output.put(job);
+                    else if (job.failure != null)
+                        reportFailure(job);
+                    if (job == endOfStream)
+                        return;
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PipelinedRecognizer.class.getName());
+
+    private static final String[] STAGE_NAMES = {"preprocess", "candidates", "plates", "chars"};
+
+    private final DetectPlates detectPlates = new DetectPlates();
+    private final DetectChars detectChars = new DetectChars();
+    private final Listener<T> listener;
+    private final int intMaxCandidates;
+    private final double dblMinCandidateScore;
+
+    // rings in front of each stage
+    private final List<SpscRingBuffer<Job<T>>> listOfRings = new ArrayList<>();
+    private final List<Thread> listOfThreads = new ArrayList<>();
+    private final Job<T> endOfStream = new Job<>(null, null);
+    private boolean closed;
+    // Set before the first submit(), the rings hand it over to the stage threads
+    private DebugSink debugSink;
+
+    // intMaxCandidates and dblMinCandidateScore as in PlateRecognizer.setCandidateSelection
+    PipelinedRecognizer(int intRingCapacity, final int intMaxCandidates, final double dblMinCandidateScore, final Listener<T> listener) {
+        this.listener = listener;
+        this.intMaxCandidates = intMaxCandidates;
+        this.dblMinCandidateScore = dblMinCandidateScore;
+
+        for (int i = 0; i < STAGE_NAMES.length; i++)
+            listOfRings.add(new SpscRingBuffer<Job<T>>(intRingCapacity));
+
+        // preprocess
+        startStage(0, new Stage(listOfRings.get(0), listOfRings.get(1)) {
+            @Override
+            void process(Job<T> job) {
+                job.imgScene = PlateRecognizer.fitToMaxSceneSize(job.imgScene);
+                job.preprocessed = detectPlates.preprocessScene(job.imgScene);
+            }
+        });
+
+        // possible chars and groups of matching chars
+        startStage(1, new Stage(listOfRings.get(1), listOfRings.get(2)) {
+            @Override
+            void process(Job<T> job) {
+                List<PossibleChar> listOfPossibleChars = detectPlates.findPossibleCharsInScene(job.preprocessed.getImgThresh());
+                job.listOfMatchingChars = detectPlates.findMatchingCharsInScene(listOfPossibleChars);
+                if (debugSink != null)
+                    debugSink.onScene(job.preprocessed.getImgThresh(), listOfPossibleChars, job.listOfMatchingChars);
+            }
+        });
+
+        // plates of the groups, best scored first
+        startStage(2, new Stage(listOfRings.get(2), listOfRings.get(3)) {
+            @Override
+            void process(Job<T> job) {
+                List<PossiblePlate> listOfPossiblePlates = new ArrayList<>();
+                for (List<PossibleChar> listOfMatchingChars : job.listOfMatchingChars) {
+                    PossiblePlate possiblePlate = detectPlates.extractPlate(job.imgScene, job.preprocessed, listOfMatchingChars);
+                    if (!possiblePlate.getImgPlate().empty())
+                        listOfPossiblePlates.add(possiblePlate);
+                }
+                job.listOfPossiblePlates = PlateScoring.selectCandidates(listOfPossiblePlates,
+                        intMaxCandidates, dblMinCandidateScore);
+                job.listOfMatchingChars = null;
+                job.preprocessed = null;
+            }
+        });
+
+        // chars of the plates, then the result goes out
+        startStage(3, new Stage(listOfRings.get(3), null) {
+            @Override
+            void process(Job<T> job) {
+                List<PossiblePlate> listOfPossiblePlates = detectChars.detectCharsInPlates(job.listOfPossiblePlates);
+                Collections.sort(listOfPossiblePlates);
+                listener.onRecognized(job.frameKey, listOfPossiblePlates);
+            }
+        });
+    }
+
+    private static void fail(Job<?> job, RuntimeException e) {
+        job.failure = e;
+        job.imgScene = null;
+        job.preprocessed = null;
+        job.listOfMatchingChars = null;
+        job.listOfPossiblePlates = null;
+    }
+
+    private void reportFailure(Job<T> job) {
+        try {
+            listener.onFailed(job.frameKey, job.failure);
+        } catch (RuntimeException e) {
+            // the last stage has to keep draining, or submit() and close() would wait forever
+            LOGGER.log(Level.SEVERE, "Listener failed", e);
+        }
+    }
+
+    private void startStage(int intStage, Stage stage) {
+        Thread thread = new Thread(stage, "Pipeline-" + STAGE_NAMES[intStage]);
+        thread.setDaemon(true);
+        thread.start();
+        listOfThreads.add(thread);
+    }
+
+    // The sink is called from the candidates and chars threads, at the same time for different frames
+    void setDebugSink(DebugSink debugSink) {
+        this.debugSink = debugSink;
+        detectPlates.setDebugSink(debugSink);
+        detectChars.setDebugSink(debugSink);
+    }
+
+    // From one producer thread only, waits while the first stage is full
+    void submit(T frameKey, Mat imgScene) throws InterruptedException {
+        if (closed)
+            throw new IllegalStateException("Pipeline is closed");
+        listOfRings.get(0).put(new Job<>(frameKey, imgScene));
+    }
+
+    // Current number of frames waiting in front of each stage
+    int[] getQueueDepths() {
+        int[] depths = new int[listOfRings.size()];
+        for (int i = 0; i < depths.length; i++)
+            depths[i] = listOfRings.get(i).getDepth();
+        return depths;
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < listOfRings.size(); i++) {
+            SpscRingBuffer<Job<T>> ring = listOfRings.get(i);
+            report.append(String.format(Locale.US, "%-10s depth=%d/%d mean=%.2f max=%d full=%d%n",
+                    STAGE_NAMES[i], ring.getDepth(), ring.getCapacity(), ring.getMeanDepth(),
+                    ring.getMaxDepth(), ring.getFullWaits()));
+        }
+        return report.toString();
+    }
+
+    // Lets the submitted frames finish, from the producer thread
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            listOfRings.get(0).put(endOfStream);
+            for (Thread thread : listOfThreads)
+                thread.join();
+        } catch (InterruptedException e) {
+            for (Thread thread : listOfThreads)
+                thread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
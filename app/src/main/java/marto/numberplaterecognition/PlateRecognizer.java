@@ -0,0 +1,225 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+class PlateRecognizer {
+    private static final int MAX_SCENE_SIZE = 1024;
+    // pixels around a plate region decoded at full resolution
+    private static final int REGION_MARGIN = 2;
+
+    private DetectPlates detectPlates;
+    private DetectChars detectChars;
+
+    // 0 runs the single-scale search, otherwise number of pyrDown steps of the coarse pass
+    private int intPyramidLevels = 0;
+    // Set for tiled detection at full resolution, e.g. 4K overview cameras
+    private ForkJoinPool tilePool;
+    // Results of identical or near-identical scenes are returned from here when set
+    private RecognitionCache recognitionCache;
+    // Every recognized plate is appended here when set
+    private DetectionLog detectionLog;
+    // Only the best scored candidates go on to char recognition, 0 keeps all of them
+    private int intMaxCandidates = 0;
+    private double dblMinCandidateScore = 0.0;
+
+    PlateRecognizer() {
+        detectPlates = new DetectPlates();
+        detectChars = new DetectChars();
+    }
+
+    // Scene can be BGR or a single grayscale/luminance channel
+    List<PossiblePlate> recognize(Mat imgScene) {
+        return recognize(imgScene, "");
+    }
+
+    List<PossiblePlate> recognize(Mat imgScene, String strSourceId) {
+        return recognize(imgScene, strSourceId, 0);
+    }
+
+    // lngBudgetMillis > 0 bounds char recognition, the plates read by then come back flagged partial.
+    // Locations are in imgScene coordinates, whatever resolution the plates were found at.
+    List<PossiblePlate> recognize(Mat imgScene, String strSourceId, long lngBudgetMillis) {
+        long lngDeadlineNanos = lngBudgetMillis > 0 ? System.nanoTime() + lngBudgetMillis * 1000000L : DetectChars.NO_DEADLINE;
+        long[] stageNanos = new long[0];
+        List<PossiblePlate> possiblePlates = null;
+        // Tiled mode keeps the full resolution. The cache works on this image too, its plate
+        // locations are in its coordinates.
+        Mat imgWorking = tilePool == null ? fitToMaxSceneSize(imgScene) : imgScene;
+
+        long lngHash = 0;
+        if (recognitionCache != null) {
+            lngHash = RecognitionCache.hash(imgWorking);
+            possiblePlates = recognitionCache.get(imgWorking, lngHash);
+        }
+
+        if (possiblePlates == null) {
+            stageNanos = new long[2];
+            possiblePlates = recognizeUncached(imgWorking, lngDeadlineNanos, stageNanos);
+            // a partial result would hide the full one on the next identical frame
+            if (recognitionCache != null && !isPartial(possiblePlates))
+                recognitionCache.put(imgWorking, lngHash, possiblePlates);
+        }
+
+        // the cache keeps its own copies, these can be moved
+        double dblScale = imgScene.cols() / (double) imgWorking.cols();
+        if (dblScale != 1.0) {
+            for (PossiblePlate possiblePlate : possiblePlates)
+                possiblePlate.setRrLocationOfPlateInScene(scaleLocation(possiblePlate.getRrLocationOfPlateInScene(), dblScale));
+        }
+
+        if (detectionLog != null)
+            logDetections(strSourceId, possiblePlates, stageNanos);
+        return possiblePlates;
+    }
+
+    private void logDetections(String strSourceId, List<PossiblePlate> possiblePlates, long[] stageNanos) {
+        long lngNow = System.currentTimeMillis();
+        for (PossiblePlate possiblePlate : possiblePlates) {
+            if (possiblePlate.getStrChars().isEmpty())
+                continue;
+
+            detectionLog.append(new DetectionEvent(lngNow, strSourceId, possiblePlate.getStrCharsReverse(),
+                    possiblePlate.getCharConfidencesReverse(), possiblePlate.getRrLocationOfPlateInScene(), stageNanos));
+        }
+    }
+
+    // Plates are found on imgReduced, a downscaled copy of the full image in regionSource, and read
+    // from their regions decoded at full resolution. Locations are in full resolution coordinates.
+    List<PossiblePlate> recognizeAtFullResolution(Mat imgReduced, RegionSource regionSource, String strSourceId) {
+        Mat imgWorking = fitToMaxSceneSize(imgReduced);
+        Size sizeFull = regionSource.getFullSize();
+        double dblScale = sizeFull.width / imgWorking.cols();
+
+        long[] stageNanos = new long[2];
+        long lngStart = System.nanoTime();
+        List<PossiblePlate> possiblePlates = detectPlates.detectPlatesInSceneCoarseToFine(imgWorking, intPyramidLevels);
+        possiblePlates = PlateScoring.selectCandidates(possiblePlates, intMaxCandidates, dblMinCandidateScore);
+
+        List<PossiblePlate> listOfFullResolutionPlates = new ArrayList<>();
+        for (PossiblePlate possiblePlate : possiblePlates) {
+            RotatedRect rrFullLocation = scaleLocation(possiblePlate.getRrLocationOfPlateInScene(), dblScale);
+
+            Rect rectRegion = regionOfPlate(rrFullLocation, sizeFull);
+            if (rectRegion.area() == 0)
+                continue;
+            Mat imgRegion = regionSource.decodeRegion(rectRegion);
+
+            RotatedRect rrInRegion = new RotatedRect(new Point(rrFullLocation.center.x - rectRegion.x, rrFullLocation.center.y - rectRegion.y),
+                    rrFullLocation.size, rrFullLocation.angle);
+            PossiblePlate fullResolutionPlate = new PossiblePlate();
+            fullResolutionPlate.setImgPlate(DetectPlates.cropRotated(imgRegion, rrInRegion));
+            fullResolutionPlate.setRrLocationOfPlateInScene(rrFullLocation);
+            fullResolutionPlate.setDblScore(possiblePlate.getDblScore());
+            listOfFullResolutionPlates.add(fullResolutionPlate);
+        }
+        stageNanos[0] = System.nanoTime() - lngStart;
+
+        lngStart = System.nanoTime();
+        possiblePlates = detectChars.detectCharsInPlates(listOfFullResolutionPlates);
+        stageNanos[1] = System.nanoTime() - lngStart;
+
+        Collections.sort(possiblePlates);
+        if (detectionLog != null)
+            logDetections(strSourceId, possiblePlates, stageNanos);
+        return possiblePlates;
+    }
+
+    private static RotatedRect scaleLocation(RotatedRect rrLocation, double dblScale) {
+        return new RotatedRect(new Point(rrLocation.center.x * dblScale, rrLocation.center.y * dblScale),
+                new Size(rrLocation.size.width * dblScale, rrLocation.size.height * dblScale), rrLocation.angle);
+    }
+
+    // Bounding box of the rotated plate with a margin for the interpolation, inside the image
+    private static Rect regionOfPlate(RotatedRect rrPlate, Size sizeImage) {
+        Rect rectBounding = rrPlate.boundingRect();
+        int intLeft = Math.max(0, rectBounding.x - REGION_MARGIN);
+        int intTop = Math.max(0, rectBounding.y - REGION_MARGIN);
+        int intRight = Math.min((int) sizeImage.width, rectBounding.x + rectBounding.width + REGION_MARGIN);
+        int intBottom = Math.min((int) sizeImage.height, rectBounding.y + rectBounding.height + REGION_MARGIN);
+        return new Rect(intLeft, intTop, Math.max(0, intRight - intLeft), Math.max(0, intBottom - intTop));
+    }
+
+    private static boolean isPartial(List<PossiblePlate> possiblePlates) {
+        return !possiblePlates.isEmpty() && possiblePlates.get(0).isPartial();
+    }
+
+    private List<PossiblePlate> recognizeUncached(Mat imgWorking, long lngDeadlineNanos, long[] stageNanos) {
+        // detect plates
+        long lngStart = System.nanoTime();
+        List<PossiblePlate> possiblePlates;
+        if (tilePool != null)
+            possiblePlates = detectPlates.detectPlatesInSceneTiled(imgWorking, tilePool);
+        else
+            possiblePlates = detectPlates.detectPlatesInSceneCoarseToFine(imgWorking, intPyramidLevels);
+        possiblePlates = PlateScoring.selectCandidates(possiblePlates, intMaxCandidates, dblMinCandidateScore);
+        stageNanos[0] = System.nanoTime() - lngStart;
+
+        // detect chars in plates
+        lngStart = System.nanoTime();
+        possiblePlates = detectChars.detectCharsInPlates(possiblePlates, lngDeadlineNanos);
+        stageNanos[1] = System.nanoTime() - lngStart;
+
+        // Sort possible plates in DESCENDING order (plate with most chars first)
+        Collections.sort(possiblePlates);
+        return possiblePlates;
+    }
+
+    // If image is big resize for faster computing
+    static Mat fitToMaxSceneSize(Mat imgScene) {
+        if (imgScene.size().height <= MAX_SCENE_SIZE && imgScene.size().width <= MAX_SCENE_SIZE)
+            return imgScene;
+
+        double scale = MAX_SCENE_SIZE / imgScene.size().height;
+        Mat imgResized = new Mat();
+        Imgproc.resize(imgScene, imgResized, new Size(), scale, scale);
+        return imgResized;
+    }
+
+    void setPyramidLevels(int intPyramidLevels) {
+        this.intPyramidLevels = intPyramidLevels;
+    }
+
+    void setCandidateSelection(int intMaxCandidates, double dblMinCandidateScore) {
+        this.intMaxCandidates = intMaxCandidates;
+        this.dblMinCandidateScore = dblMinCandidateScore;
+    }
+
+    // null detaches the sink, the intermediates then cost nothing
+    void setDebugSink(DebugSink debugSink) {
+        detectPlates.setDebugSink(debugSink);
+        detectChars.setDebugSink(debugSink);
+    }
+
+    void setNativeResolutionSegmentation(boolean nativeResolutionSegmentation) {
+        detectChars.setNativeResolutionSegmentation(nativeResolutionSegmentation);
+    }
+
+    // null switches single best plate mode off, see DetectChars.setSingleBestPlate
+    void setSingleBestPlate(Pattern ptnPlate, float fltMinConfidence) {
+        detectChars.setSingleBestPlate(ptnPlate, fltMinConfidence);
+    }
+
+    void setDetectionLog(DetectionLog detectionLog) {
+        this.detectionLog = detectionLog;
+    }
+
+    void setRecognitionCache(RecognitionCache recognitionCache) {
+        this.recognitionCache = recognitionCache;
+    }
+
+    // null switches tiled detection off
+    void setTilePool(ForkJoinPool tilePool) {
+        this.tilePool = tilePool;
+    }
+}
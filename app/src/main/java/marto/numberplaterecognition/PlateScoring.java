@@ -0,0 +1,108 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Cheap ranking of plate candidates, so char recognition only runs on the promising ones
+class PlateScoring {
+    private static final int FULL_SCORE_CHARS = 6;
+    private static final double MAX_CHAR_HEIGHT_VARIATION = 0.25;
+    private static final double MIN_CHARS_ASPECT_RATIO = 2.0;
+    private static final double MAX_CHARS_ASPECT_RATIO = 8.0;
+    private static final double FULL_SCORE_EDGE_DENSITY = 0.15;
+    private static final double FULL_SCORE_STD_DEV = 50.0;
+
+    private static final double CANNY_LOW_THRESHOLD = 50.0;
+    private static final double CANNY_HIGH_THRESHOLD = 150.0;
+
+    private static final double WEIGHT_GROUP_SIZE = 0.3;
+    private static final double WEIGHT_HEIGHT_CONSISTENCY = 0.2;
+    private static final double WEIGHT_ASPECT_RATIO = 0.15;
+    private static final double WEIGHT_EDGE_DENSITY = 0.2;
+    private static final double WEIGHT_CONTRAST = 0.15;
+
+    // Score between 0 and 1 from the group of matching chars and the cropped plate
+    static double score(List<PossibleChar> listOfMatchingChars, Mat imgPlate) {
+        double dblGroupSize = Math.min(1.0, listOfMatchingChars.size() / (double) FULL_SCORE_CHARS);
+
+        double dblTotalHeight = 0;
+        int intLeft = Integer.MAX_VALUE, intRight = 0;
+        for (PossibleChar matchingChar : listOfMatchingChars) {
+            dblTotalHeight += matchingChar.getBoundingRect().height;
+            intLeft = Math.min(intLeft, matchingChar.getBoundingRect().x);
+            intRight = Math.max(intRight, matchingChar.getBoundingRect().x + matchingChar.getBoundingRect().width);
+        }
+        double dblMeanHeight = dblTotalHeight / listOfMatchingChars.size();
+
+        double dblHeightVariance = 0;
+        for (PossibleChar matchingChar : listOfMatchingChars)
+            dblHeightVariance += Math.pow(matchingChar.getBoundingRect().height - dblMeanHeight, 2);
+        double dblHeightVariation = Math.sqrt(dblHeightVariance / listOfMatchingChars.size()) / dblMeanHeight;
+        double dblHeightConsistency = Math.max(0.0, 1.0 - dblHeightVariation / MAX_CHAR_HEIGHT_VARIATION);
+
+        // Full score inside the usual range of plates, falls off linearly outside it
+        double dblCharsAspectRatio = (intRight - intLeft) / dblMeanHeight;
+        double dblAspectRatio = 1.0;
+        if (dblCharsAspectRatio < MIN_CHARS_ASPECT_RATIO)
+            dblAspectRatio = dblCharsAspectRatio / MIN_CHARS_ASPECT_RATIO;
+        else if (dblCharsAspectRatio > MAX_CHARS_ASPECT_RATIO)
+            dblAspectRatio = Math.max(0.0, 2.0 - dblCharsAspectRatio / MAX_CHARS_ASPECT_RATIO);
+
+        double dblEdgeDensity = 0;
+        double dblContrast = 0;
+        if (!imgPlate.empty()) {
+            Mat imgGray = imgPlate;
+            if (imgPlate.channels() != 1) {
+                imgGray = new Mat();
+                Imgproc.cvtColor(imgPlate, imgGray, Imgproc.COLOR_BGR2GRAY);
+            }
+
+            Mat imgEdges = new Mat();
+            Imgproc.Canny(imgGray, imgEdges, CANNY_LOW_THRESHOLD, CANNY_HIGH_THRESHOLD);
+            dblEdgeDensity = Math.min(1.0, Core.countNonZero(imgEdges) / (double) imgEdges.total() / FULL_SCORE_EDGE_DENSITY);
+
+            MatOfDouble mean = new MatOfDouble();
+            MatOfDouble stdDev = new MatOfDouble();
+            Core.meanStdDev(imgGray, mean, stdDev);
+            dblContrast = Math.min(1.0, stdDev.toArray()[0] / FULL_SCORE_STD_DEV);
+        }
+
+        return WEIGHT_GROUP_SIZE * dblGroupSize +
+                WEIGHT_HEIGHT_CONSISTENCY * dblHeightConsistency +
+                WEIGHT_ASPECT_RATIO * dblAspectRatio +
+                WEIGHT_EDGE_DENSITY * dblEdgeDensity +
+                WEIGHT_CONTRAST * dblContrast;
+    }
+
+    // Best candidate first
+    static final Comparator<PossiblePlate> BY_SCORE_DESCENDING = new Comparator<PossiblePlate>() {
+        @Override
+        public int compare(PossiblePlate first, PossiblePlate second) {
+            return Double.compare(second.getDblScore(), first.getDblScore());
+        }
+    };
+
+    // Best scored candidates first, at most intMaxCandidates (0 for no limit) with at least dblMinScore
+    static List<PossiblePlate> selectCandidates(List<PossiblePlate> possiblePlates, int intMaxCandidates, double dblMinScore) {
+        List<PossiblePlate> listOfCandidates = new ArrayList<>(possiblePlates);
+        Collections.sort(listOfCandidates, BY_SCORE_DESCENDING);
+
+        List<PossiblePlate> listOfSelected = new ArrayList<>();
+        for (PossiblePlate possiblePlate : listOfCandidates) {
+            if (intMaxCandidates > 0 && listOfSelected.size() >= intMaxCandidates)
+                break;
+            if (possiblePlate.getDblScore() >= dblMinScore)
+                listOfSelected.add(possiblePlate);
+        }
+
+        PipelineMetrics.count(PipelineMetrics.Counter.PRUNED_PLATES, possiblePlates.size() - listOfSelected.size());
+        return listOfSelected;
+    }
+}
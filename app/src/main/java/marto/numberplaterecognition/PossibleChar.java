@@ -5,6 +5,7 @@ import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class PossibleChar implements Comparable<PossibleChar> {
@@ -28,6 +29,18 @@ public class PossibleChar implements Comparable<PossibleChar> {
         dblAspectRatio = (float)boundingRect.width / (float)boundingRect.height;
     }
 
+    // Moves the char into the coordinates of an enclosing image
+    void translate(int intOffsetX, int intOffsetY) {
+        List<Point> translatedContour = new ArrayList<>(contour.size());
+        for (Point point : contour)
+            translatedContour.add(new Point(point.x + intOffsetX, point.y + intOffsetY));
+        contour = translatedContour;
+
+        boundingRect = new Rect(boundingRect.x + intOffsetX, boundingRect.y + intOffsetY, boundingRect.width, boundingRect.height);
+        intCenterX += intOffsetX;
+        intCenterY += intOffsetY;
+    }
+
     @Override
     public int compareTo(PossibleChar possibleChar) {
         return possibleChar.intCenterX - this.intCenterX;
@@ -7,15 +7,25 @@ public class PossiblePlate implements Comparable<PossiblePlate> {
     private Mat imgPlate;
     private Mat imgGrayscale;
     private Mat imgThresh;
+    // Crop of the scene's PreprocessResult.getImgMaxContrast, empty if the scene's wasn't kept
+    private Mat imgMaxContrast;
     private RotatedRect rrLocationOfPlateInScene;
     private String strChars;
+    // Same order as strChars
+    private float[] charConfidences;
+    // Candidate score from PlateScoring, higher is more plate-like
+    private double dblScore;
+    // Char recognition ran out of time before every candidate plate was read
+    private boolean partial;
 
     public  PossiblePlate() {
         imgPlate = new Mat();
         imgGrayscale = new Mat();
         imgThresh = new Mat();
+        imgMaxContrast = new Mat();
         rrLocationOfPlateInScene = new RotatedRect();
         strChars = "";
+        charConfidences = new float[0];
     }
 
     public Mat getImgPlate() {
@@ -42,6 +52,14 @@ public class PossiblePlate implements Comparable<PossiblePlate> {
         this.imgThresh = imgThresh;
     }
 
+    public Mat getImgMaxContrast() {
+        return imgMaxContrast;
+    }
+
+    public void setImgMaxContrast(Mat imgMaxContrast) {
+        this.imgMaxContrast = imgMaxContrast;
+    }
+
     public RotatedRect getRrLocationOfPlateInScene() {
         return rrLocationOfPlateInScene;
     }
@@ -62,8 +80,40 @@ public class PossiblePlate implements Comparable<PossiblePlate> {
         this.strChars = strChars;
     }
 
+    public float[] getCharConfidences() {
+        return charConfidences;
+    }
+
+    public float[] getCharConfidencesReverse() {
+        float[] reversed = new float[charConfidences.length];
+        for (int i = 0; i < charConfidences.length; i++)
+            reversed[i] = charConfidences[charConfidences.length - 1 - i];
+        return reversed;
+    }
+
+    public void setCharConfidences(float[] charConfidences) {
+        this.charConfidences = charConfidences;
+    }
+
+    public double getDblScore() {
+        return dblScore;
+    }
+
+    public void setDblScore(double dblScore) {
+        this.dblScore = dblScore;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    // Most chars first, so plates rejected by the reader (no chars) sort last
     @Override
     public int compareTo(PossiblePlate possiblePlate) {
-        return this.getStrChars().length() - possiblePlate.getStrChars().length();
+        return possiblePlate.getStrChars().length() - this.getStrChars().length();
     }
 }
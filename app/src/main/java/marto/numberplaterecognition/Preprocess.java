@@ -13,14 +13,34 @@ class Preprocess {
     private static final int ADAPTIVE_THRESH_BLOCK_SIZE = 19;
     private static final int ADAPTIVE_THRESH_WEIGHT = 9;
 
-    static void preprocess(Mat imgOriginal, Mat imgGrayscale, Mat imgThresh) {
-        imgGrayscale = extractValue(imgOriginal);
+    static PreprocessResult preprocess(Mat imgOriginal) {
+        // Camera frames already arrive as a single luminance channel, no colour conversion needed
+        Mat imgGrayscale;
+        if (imgOriginal.channels() == 1)
+            imgGrayscale = imgOriginal;
+        else
+            imgGrayscale = extractValue(imgOriginal);
 
         Mat imgMaxContrastGrayscale = maximizeContrast(imgGrayscale);
         Mat imgBlurred = new Mat();
         Imgproc.GaussianBlur(imgMaxContrastGrayscale, imgBlurred, GAUSSIAN_SMOOTH_FILTER_SIZE, 0);
 
-        Imgproc.adaptiveThreshold(imgBlurred, imgThresh, 255.0, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY_INV, ADAPTIVE_THRESH_BLOCK_SIZE, ADAPTIVE_THRESH_WEIGHT);
+        Mat imgThresh = new Mat();
+        threshold(imgBlurred, imgThresh);
+
+        return new PreprocessResult(imgGrayscale, imgBlurred, imgThresh);
+    }
+
+    // Fills the given Mats, the grayscale image used to be assigned to the parameter only
+    static void preprocess(Mat imgOriginal, Mat imgGrayscale, Mat imgThresh) {
+        PreprocessResult preprocessed = preprocess(imgOriginal);
+        preprocessed.getImgGrayscale().copyTo(imgGrayscale);
+        preprocessed.getImgThresh().copyTo(imgThresh);
+    }
+
+    // Last step of preprocess, for contrast images cropped from an already preprocessed scene
+    static void threshold(Mat imgMaxContrast, Mat imgThresh) {
+        Imgproc.adaptiveThreshold(imgMaxContrast, imgThresh, 255.0, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY_INV, ADAPTIVE_THRESH_BLOCK_SIZE, ADAPTIVE_THRESH_WEIGHT);
     }
 
     private static Mat extractValue(Mat imgOriginal) {
@@ -0,0 +1,31 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+
+// Intermediate images of Preprocess.preprocess, kept so plates can be cropped from the scene's
+// images instead of preprocessing every plate crop again
+class PreprocessResult {
+    private final Mat imgGrayscale;
+    private final Mat imgMaxContrast;
+    private final Mat imgThresh;
+
+    PreprocessResult(Mat imgGrayscale, Mat imgMaxContrast, Mat imgThresh) {
+        this.imgGrayscale = imgGrayscale;
+        this.imgMaxContrast = imgMaxContrast;
+        this.imgThresh = imgThresh;
+    }
+
+    // Value channel, or the frame itself for single channel frames
+    Mat getImgGrayscale() {
+        return imgGrayscale;
+    }
+
+    // Top-hat/black-hat contrast stretched and blurred grayscale, the input of the adaptive threshold
+    Mat getImgMaxContrast() {
+        return imgMaxContrast;
+    }
+
+    Mat getImgThresh() {
+        return imgThresh;
+    }
+}
@@ -0,0 +1,75 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Nearest neighbour over the raw glyph pixels like KnnCharClassifier, with the training glyphs
+// stored as CV_8U instead of CV_32F. The training pixels are whole numbers 0..255, so nothing is
+// lost and the squared distances come out exact from the vectorized 8U kernel of batchDistance.
+class QuantizedKnnCharClassifier implements CharClassifier {
+    private static final int K_NEIGHBOURS = 3;
+
+    // N x 600 CV_8U
+    private final Mat matSamples;
+    private final char[] labels;
+
+    private QuantizedKnnCharClassifier(Mat matSamples, char[] labels) {
+        this.matSamples = matSamples;
+        this.labels = labels;
+    }
+
+    static QuantizedKnnCharClassifier train(CharTrainingData trainingData) {
+        Mat matSamples = new Mat();
+        trainingData.getSamples().convertTo(matSamples, CvType.CV_8U);
+
+        char[] labels = new char[trainingData.size()];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = trainingData.getLabel(i);
+
+        return new QuantizedKnnCharClassifier(matSamples, labels);
+    }
+
+    @Override
+    public Result classify(Mat imgGlyph) {
+        return classifyAll(Collections.singletonList(imgGlyph)).get(0);
+    }
+
+    @Override
+    public List<Result> classifyAll(List<Mat> listOfGlyphs) {
+        Mat matGlyphs = new Mat(listOfGlyphs.size(), CharTrainingData.GLYPH_SIZE, CvType.CV_8U);
+        for (int i = 0; i < listOfGlyphs.size(); i++)
+            listOfGlyphs.get(i).reshape(1, 1).copyTo(matGlyphs.row(i));
+
+        // K nearest training glyphs per glyph, nearest first
+        Mat matDistances = new Mat();
+        Mat matNearest = new Mat();
+        Core.batchDistance(matGlyphs, matSamples, matDistances, CvType.CV_32S, matNearest, Core.NORM_L2SQR, K_NEIGHBOURS);
+
+        List<Result> listOfResults = new ArrayList<>(listOfGlyphs.size());
+        int[] nearest = new int[K_NEIGHBOURS];
+        int[] distances = new int[K_NEIGHBOURS];
+        float[] neighborResponses = new float[K_NEIGHBOURS];
+        float[] neighborDistances = new float[K_NEIGHBOURS];
+        for (int i = 0; i < listOfGlyphs.size(); i++) {
+            matNearest.get(i, 0, nearest);
+            matDistances.get(i, 0, distances);
+            for (int k = 0; k < K_NEIGHBOURS; k++) {
+                neighborResponses[k] = labels[nearest[k]];
+                neighborDistances[k] = distances[k];
+            }
+
+            listOfResults.add(new Result(labels[nearest[0]], KnnCharClassifier.confidence(neighborResponses, neighborDistances)));
+        }
+        return listOfResults;
+    }
+
+    // Bytes held for the training glyphs, a quarter of the CV_32F training matrix
+    long getSampleBytes() {
+        return matSamples.total() * matSamples.elemSize();
+    }
+}
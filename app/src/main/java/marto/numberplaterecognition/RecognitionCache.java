@@ -0,0 +1,219 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// LRU cache of recognition results keyed by a difference hash of the downscaled scene
+class RecognitionCache {
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    // Bits a plate region's hash may differ by for a near match of the scene
+    private static final int MAX_PLATE_REGION_DISTANCE = 2;
+
+    private final int intMaxEntries;
+    private final long lngTtlNanos;
+    private final int intMaxHammingDistance;
+
+    private final LinkedHashMap<Long, CacheEntry> entries;
+
+    private long lngHits;
+    private long lngMisses;
+    private long lngEvictions;
+
+    // Exact hash matches only, the safe choice for fixed cameras
+    RecognitionCache(int intMaxEntries, long lngTtl, TimeUnit ttlUnit) {
+        this(intMaxEntries, lngTtl, ttlUnit, 0);
+    }
+
+    // Near matches within intMaxHammingDistance bits too, never for a cached scene without plates.
+    // Exact or near, a hit needs every cached plate region to still look the same in the new
+    // scene, on a fixed camera a different car in the same spot hardly changes the thumbnail
+    // of the whole scene.
+    RecognitionCache(int intMaxEntries, long lngTtl, TimeUnit ttlUnit, int intMaxHammingDistance) {
+        this.intMaxEntries = intMaxEntries;
+        this.lngTtlNanos = ttlUnit.toNanos(lngTtl);
+        this.intMaxHammingDistance = intMaxHammingDistance;
+
+        entries = new LinkedHashMap<Long, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+                if (size() > RecognitionCache.this.intMaxEntries) {
+                    lngEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // 64 bit dHash, one bit per horizontal gradient sign of a 9x8 thumbnail
+    static long hash(Mat imgScene) {
+        Mat imgSmall = new Mat();
+        Imgproc.resize(imgScene, imgSmall, new Size(HASH_WIDTH, HASH_HEIGHT), 0, 0, Imgproc.INTER_AREA);
+
+        Mat imgSmallGray = imgSmall;
+        if (imgSmall.channels() != 1) {
+            imgSmallGray = new Mat();
+            Imgproc.cvtColor(imgSmall, imgSmallGray, imgSmall.channels() == 4 ? Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY);
+        }
+
+        byte[] pixels = new byte[HASH_WIDTH * HASH_HEIGHT];
+        imgSmallGray.get(0, 0, pixels);
+
+        long lngHash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int intLeft = pixels[y * HASH_WIDTH + x] & 0xFF;
+                int intRight = pixels[y * HASH_WIDTH + x + 1] & 0xFF;
+                lngHash = (lngHash << 1) | (intLeft > intRight ? 1 : 0);
+            }
+        }
+        return lngHash;
+    }
+
+    // Returns null on a miss, the plates are copies the caller may change
+    synchronized List<PossiblePlate> get(Mat imgScene, long lngHash) {
+        long lngNow = System.nanoTime();
+        Size sceneSize = imgScene.size();
+
+        CacheEntry entry = entries.get(lngHash);
+        if (entry != null && isExpired(entry, lngNow)) {
+            entries.remove(lngHash);
+            lngEvictions++;
+            entry = null;
+        }
+        if (entry != null && (!entry.sceneSize.equals(sceneSize) || !hasSamePlateRegions(entry, imgScene, true)))
+            entry = null;
+        if (entry == null && intMaxHammingDistance > 0) {
+            entry = findNearest(lngHash, sceneSize, lngNow);
+            if (entry != null && !hasSamePlateRegions(entry, imgScene, false))
+                entry = null;
+        }
+
+        if (entry == null) {
+            lngMisses++;
+            PipelineMetrics.count(PipelineMetrics.Counter.CACHE_MISSES, 1);
+            return null;
+        }
+
+        lngHits++;
+        PipelineMetrics.count(PipelineMetrics.Counter.CACHE_HITS, 1);
+        List<PossiblePlate> possiblePlates = new ArrayList<>();
+        for (PossiblePlate cachedPlate : entry.possiblePlates)
+            possiblePlates.add(copySummary(cachedPlate));
+        return possiblePlates;
+    }
+
+    synchronized void put(Mat imgScene, long lngHash, List<PossiblePlate> possiblePlates) {
+        // Keep only the recognized text, confidences and location, not the plate images
+        List<PossiblePlate> summary = new ArrayList<>();
+        long[] plateRegionHashes = new long[possiblePlates.size()];
+        for (int i = 0; i < possiblePlates.size(); i++) {
+            summary.add(copySummary(possiblePlates.get(i)));
+            plateRegionHashes[i] = hashPlateRegion(imgScene, possiblePlates.get(i));
+        }
+
+        entries.put(lngHash, new CacheEntry(imgScene.size(), summary, plateRegionHashes, System.nanoTime()));
+    }
+
+    private static PossiblePlate copySummary(PossiblePlate possiblePlate) {
+        PossiblePlate summaryPlate = new PossiblePlate();
+        summaryPlate.setRrLocationOfPlateInScene(possiblePlate.getRrLocationOfPlateInScene().clone());
+        summaryPlate.setStrChars(possiblePlate.getStrChars());
+        summaryPlate.setCharConfidences(possiblePlate.getCharConfidences().clone());
+        summaryPlate.setDblScore(possiblePlate.getDblScore());
+        return summaryPlate;
+    }
+
+    // A match of the whole scene can still have another car in it, the plates must match too.
+    // Without plates to compare only an exact match is trusted.
+    private boolean hasSamePlateRegions(CacheEntry entry, Mat imgScene, boolean exactMatch) {
+        if (entry.possiblePlates.isEmpty())
+            return exactMatch;
+
+        for (int i = 0; i < entry.possiblePlates.size(); i++) {
+            long lngRegionHash = hashPlateRegion(imgScene, entry.possiblePlates.get(i));
+            if (Long.bitCount(lngRegionHash ^ entry.plateRegionHashes[i]) > MAX_PLATE_REGION_DISTANCE)
+                return false;
+        }
+        return true;
+    }
+
+    private static long hashPlateRegion(Mat imgScene, PossiblePlate possiblePlate) {
+        Rect rectScene = new Rect(0, 0, imgScene.cols(), imgScene.rows());
+        Rect rectPlate = possiblePlate.getRrLocationOfPlateInScene().boundingRect();
+
+        int intLeft = Math.max(rectScene.x, rectPlate.x);
+        int intTop = Math.max(rectScene.y, rectPlate.y);
+        int intRight = Math.min(rectScene.x + rectScene.width, rectPlate.x + rectPlate.width);
+        int intBottom = Math.min(rectScene.y + rectScene.height, rectPlate.y + rectPlate.height);
+        if (intRight - intLeft < HASH_WIDTH || intBottom - intTop < HASH_HEIGHT)
+            return 0;
+
+        return hash(new Mat(imgScene, new Rect(intLeft, intTop, intRight - intLeft, intBottom - intTop)));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized long getHits() {
+        return lngHits;
+    }
+
+    synchronized long getMisses() {
+        return lngMisses;
+    }
+
+    synchronized long getEvictions() {
+        return lngEvictions;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private CacheEntry findNearest(long lngHash, Size sceneSize, long lngNow) {
+        CacheEntry nearest = null;
+        int intNearestDistance = intMaxHammingDistance + 1;
+
+        for (Map.Entry<Long, CacheEntry> candidate : entries.entrySet()) {
+            if (!candidate.getValue().sceneSize.equals(sceneSize) || isExpired(candidate.getValue(), lngNow))
+                continue;
+
+            int intDistance = Long.bitCount(candidate.getKey() ^ lngHash);
+            if (intDistance < intNearestDistance) {
+                intNearestDistance = intDistance;
+                nearest = candidate.getValue();
+            }
+        }
+        return nearest;
+    }
+
+    private boolean isExpired(CacheEntry entry, long lngNow) {
+        return lngNow - entry.lngCreatedNanos > lngTtlNanos;
+    }
+
+    private static class CacheEntry {
+        final Size sceneSize;
+        final List<PossiblePlate> possiblePlates;
+        // dHash of each plate's region in the scene, same order as possiblePlates
+        final long[] plateRegionHashes;
+        final long lngCreatedNanos;
+
+        CacheEntry(Size sceneSize, List<PossiblePlate> possiblePlates, long[] plateRegionHashes, long lngCreatedNanos) {
+            this.sceneSize = sceneSize;
+            this.possiblePlates = possiblePlates;
+            this.plateRegionHashes = plateRegionHashes;
+            this.lngCreatedNanos = lngCreatedNanos;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+// Full resolution image that can be read one region at a time, so plates found on a downscaled
+// copy can be re-read at full resolution without decoding the whole image
+interface RegionSource {
+    Size getFullSize();
+
+    // BGR pixels of rect, rect lies inside the full size
+    Mat decodeRegion(Rect rect);
+}
@@ -0,0 +1,105 @@
+package marto.numberplaterecognition;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded ring between exactly one producer thread and one consumer thread. Each side only
+// writes its own index, so no locks are needed. A full ring makes put() wait, which is the
+// backpressure between pipeline stages.
+class SpscRingBuffer<T> {
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50000;
+
+    private final Object[] slots;
+    private final int intMask;
+    // next slot to read, written by the consumer only
+    private final AtomicLong lngHead = new AtomicLong();
+    // next slot to write, written by the producer only
+    private final AtomicLong lngTail = new AtomicLong();
+
+    // Depth seen by the producer at each put, for the queue depth metrics
+    private final AtomicLong lngPuts = new AtomicLong();
+    private final AtomicLong lngDepthSum = new AtomicLong();
+    private final AtomicLong lngFullWaits = new AtomicLong();
+    private volatile int intMaxDepth;
+
+    // Capacity is rounded up to a power of two
+    SpscRingBuffer(int intCapacity) {
+        int intSize = 1;
+        while (intSize < intCapacity)
+            intSize <<= 1;
+        slots = new Object[intSize];
+        intMask = intSize - 1;
+    }
+
+    // Producer side, waits while the ring is full
+    void put(T item) throws InterruptedException {
+        long lngTailNow = lngTail.get();
+        if (lngTailNow - lngHead.get() == slots.length) {
+            lngFullWaits.incrementAndGet();
+            int intSpins = 0;
+            while (lngTailNow - lngHead.get() == slots.length)
+                intSpins = backOff(intSpins);
+        }
+
+        slots[(int) lngTailNow & intMask] = item;
+        // publishes the slot to the consumer
+        lngTail.lazySet(lngTailNow + 1);
+
+        int intDepth = (int) (lngTailNow + 1 - lngHead.get());
+        lngPuts.incrementAndGet();
+        lngDepthSum.addAndGet(intDepth);
+        if (intDepth > intMaxDepth)
+            intMaxDepth = intDepth;
+    }
+
+    // Consumer side, waits while the ring is empty
+    @SuppressWarnings("unchecked")
+    T take() throws InterruptedException {
+        long lngHeadNow = lngHead.get();
+        int intSpins = 0;
+        while (lngTail.get() == lngHeadNow)
+            intSpins = backOff(intSpins);
+
+        int intSlot = (int) lngHeadNow & intMask;
+        T item = (T) slots[intSlot];
+        slots[intSlot] = null;
+        // frees the slot for the producer
+        lngHead.lazySet(lngHeadNow + 1);
+        return item;
+    }
+
+    // Spins first, the other side is usually about to move, then parks so an idle stage costs no CPU
+    private static int backOff(int intSpins) throws InterruptedException {
+        if (intSpins < SPIN_TRIES)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        return intSpins + 1;
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    int getDepth() {
+        return (int) (lngTail.get() - lngHead.get());
+    }
+
+    int getMaxDepth() {
+        return intMaxDepth;
+    }
+
+    double getMeanDepth() {
+        long lngCount = lngPuts.get();
+        return lngCount == 0 ? 0.0 : (double) lngDepthSum.get() / lngCount;
+    }
+
+    // How often the producer found the ring full and had to wait
+    long getFullWaits() {
+        return lngFullWaits.get();
+    }
+}
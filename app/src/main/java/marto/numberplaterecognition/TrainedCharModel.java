@@ -0,0 +1,139 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Trained char classifiers cached in app storage next to the training snapshot, so later starts
+// of the same install skip training. An app update retrains once, from the snapshot.
+// Layout: magic, format version, APK stamp, kind, then the model of that kind:
+// HOG_SVM the class labels, the SVM itself is saved by OpenCV to the same path plus ".yml";
+// PCA_KNN the mean, eigenvectors, projected training glyphs and their labels as float matrices.
+final class TrainedCharModel {
+    private static final int MAGIC = 0x4348524D; // "CHRM"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int KIND_HOG_SVM = 1;
+    private static final int KIND_PCA_KNN = 2;
+
+    private static final String SVM_SUFFIX = ".yml";
+
+    private TrainedCharModel() {
+    }
+
+    // Only these classifiers have a model worth saving, the others train in no time
+    static boolean isSaved(CharClassifier charClassifier) {
+        return charClassifier instanceof HogSvmCharClassifier || charClassifier instanceof PcaKnnCharClassifier;
+    }
+
+    // Returns null when the model is missing, damaged or of another install
+    static CharClassifier readIfStamp(File file, long lngApkStamp) {
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != lngApkStamp)
+                return null;
+
+            switch (in.readInt()) {
+                case KIND_HOG_SVM:
+                    char[] classLabels = new char[in.readInt()];
+                    for (int i = 0; i < classLabels.length; i++)
+                        classLabels[i] = in.readChar();
+                    File fileSvm = new File(file.getPath() + SVM_SUFFIX);
+                    if (!fileSvm.isFile())
+                        return null;
+                    return HogSvmCharClassifier.load(fileSvm.getPath(), classLabels);
+                case KIND_PCA_KNN:
+                    Mat matMean = readMat(in);
+                    Mat matEigenvectors = readMat(in);
+                    Mat matProjected = readMat(in);
+                    Mat matLabels = readMat(in);
+                    return PcaKnnCharClassifier.load(matMean, matEigenvectors, matProjected, matLabels);
+                default:
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged SVM file fails in OpenCV with a CvException
+            return null;
+        }
+    }
+
+    // Written to temp files first, a crash midway leaves the old model or none
+    static void write(File file, CharClassifier charClassifier, long lngApkStamp) throws IOException {
+        if (!isSaved(charClassifier))
+            throw new IllegalArgumentException("No saved model for " + charClassifier.getClass().getSimpleName());
+
+        File fileTemp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileTemp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(lngApkStamp);
+
+            if (charClassifier instanceof HogSvmCharClassifier) {
+                HogSvmCharClassifier hogSvmCharClassifier = (HogSvmCharClassifier) charClassifier;
+                char[] classLabels = hogSvmCharClassifier.getClassLabels();
+                out.writeInt(KIND_HOG_SVM);
+                out.writeInt(classLabels.length);
+                for (char chrLabel : classLabels)
+                    out.writeChar(chrLabel);
+
+                // the header is renamed into place after the SVM, so it never points at an older one
+                File fileSvm = new File(file.getPath() + SVM_SUFFIX);
+                File fileSvmTemp = new File(file.getPath() + ".tmp" + SVM_SUFFIX);
+                hogSvmCharClassifier.save(fileSvmTemp.getPath());
+                if (!fileSvmTemp.renameTo(fileSvm))
+                    throw new IOException("Can't replace " + fileSvm);
+            } else {
+                PcaKnnCharClassifier pcaKnnCharClassifier = (PcaKnnCharClassifier) charClassifier;
+                out.writeInt(KIND_PCA_KNN);
+                writeMat(out, pcaKnnCharClassifier.getMean());
+                writeMat(out, pcaKnnCharClassifier.getEigenvectors());
+                writeMat(out, pcaKnnCharClassifier.getProjected());
+                writeMat(out, pcaKnnCharClassifier.getLabels());
+            }
+        }
+
+        if (!fileTemp.renameTo(file))
+            throw new IOException("Can't replace " + file);
+    }
+
+    // rows, cols, then the CV_32F values row by row
+    private static void writeMat(DataOutputStream out, Mat mat) throws IOException {
+        Mat matFloat = mat;
+        if (mat.type() != CvType.CV_32F || !mat.isContinuous()) {
+            matFloat = new Mat();
+            mat.convertTo(matFloat, CvType.CV_32F);
+        }
+
+        float[] values = new float[matFloat.rows() * matFloat.cols()];
+        matFloat.get(0, 0, values);
+        out.writeInt(matFloat.rows());
+        out.writeInt(matFloat.cols());
+        for (float fltValue : values)
+            out.writeFloat(fltValue);
+    }
+
+    private static Mat readMat(DataInputStream in) throws IOException {
+        int intRows = in.readInt();
+        int intCols = in.readInt();
+        if (intRows <= 0 || intCols <= 0)
+            throw new IOException("Bad matrix size " + intRows + "x" + intCols);
+
+        float[] values = new float[intRows * intCols];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readFloat();
+
+        Mat mat = new Mat(intRows, intCols, CvType.CV_32F);
+        mat.put(0, 0, values);
+        return mat;
+    }
+}
@@ -0,0 +1,155 @@
+package marto.numberplaterecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Frames of a video file or stream URL, decoded on their own thread so decoding overlaps with
+// recognition. Decoded frames wait in a bounded ring of reused Mats, the decoder blocks while
+// all of them are taken, so a slow consumer slows decoding down instead of dropping frames.
+class VideoFrameSource implements Closeable {
+
+    static class Frame {
+        private final int intIndex;
+        private final double dblTimestampMillis;
+        private final Mat imgFrame;
+
+        private Frame(int intIndex, double dblTimestampMillis, Mat imgFrame) {
+            this.intIndex = intIndex;
+            this.dblTimestampMillis = dblTimestampMillis;
+            this.imgFrame = imgFrame;
+        }
+
+        // Index in the video, counting the skipped frames too
+        int getIndex() {
+            return intIndex;
+        }
+
+        double getTimestampMillis() {
+            return dblTimestampMillis;
+        }
+
+        // BGR, valid until the frame is recycled
+        Mat getImgFrame() {
+            return imgFrame;
+        }
+    }
+
+    interface Listener {
+        void onFrame(Frame frame, List<PossiblePlate> possiblePlates);
+    }
+
+    private static final Frame END_OF_STREAM = new Frame(-1, 0, null);
+
+    private final String strSource;
+    private final int intFrameStride;
+    private final BlockingQueue<Mat> queueOfFreeMats;
+    private final BlockingQueue<Frame> queueOfFrames;
+    private final Thread decodeThread;
+    private volatile boolean closed;
+    private volatile boolean opened;
+
+    // intFrameStride 1 decodes every frame, n only every n-th, the others are grabbed but not decoded
+    VideoFrameSource(String strSource, int intRingSize, int intFrameStride) {
+        if (intRingSize < 1 || intFrameStride < 1)
+            throw new IllegalArgumentException("Ring size and frame stride must be positive");
+
+        this.strSource = strSource;
+        this.intFrameStride = intFrameStride;
+        queueOfFreeMats = new ArrayBlockingQueue<>(intRingSize);
+        queueOfFrames = new ArrayBlockingQueue<>(intRingSize + 1);
+        for (int i = 0; i < intRingSize; i++)
+            queueOfFreeMats.add(new Mat());
+
+        decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        }, "VideoDecode");
+        decodeThread.setDaemon(true);
+    }
+
+    void start() {
+        decodeThread.start();
+    }
+
+    // Next decoded frame, null at the end of the stream
+    Frame take() throws InterruptedException {
+        Frame frame = queueOfFrames.take();
+        if (frame == END_OF_STREAM) {
+            // Let later calls see the end too
+            queueOfFrames.offer(END_OF_STREAM);
+            return null;
+        }
+        return frame;
+    }
+
+    // Gives the Mat of the frame back to the decoder
+    void recycle(Frame frame) {
+        queueOfFreeMats.offer(frame.getImgFrame());
+    }
+
+    // False when the source couldn't be opened, known once the first take() returned
+    boolean isOpened() {
+        return opened;
+    }
+
+    // Recognizes every decoded frame on the calling thread until the end of the stream
+    void recognizeAll(PlateRecognizer plateRecognizer, Listener listener) throws InterruptedException {
+        Frame frame = take();
+        while (frame != null) {
+            List<PossiblePlate> possiblePlates = plateRecognizer.recognize(frame.getImgFrame(), strSource);
+            listener.onFrame(frame, possiblePlates);
+            recycle(frame);
+            frame = take();
+        }
+    }
+
+    private void decodeLoop() {
+        VideoCapture videoCapture = new VideoCapture(strSource);
+        try {
+            opened = videoCapture.isOpened();
+            int intIndex = 0;
+            while (opened && !closed) {
+                // Frames between the strided ones are only grabbed, that skips the decoding
+                if (intIndex % intFrameStride != 0) {
+                    if (!videoCapture.grab())
+                        break;
+                    intIndex++;
+                    continue;
+                }
+
+                Mat imgFrame = queueOfFreeMats.take();
+                if (!videoCapture.read(imgFrame) || imgFrame.empty()) {
+                    queueOfFreeMats.offer(imgFrame);
+                    break;
+                }
+                queueOfFrames.put(new Frame(intIndex, videoCapture.get(Videoio.CAP_PROP_POS_MSEC), imgFrame));
+                intIndex++;
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            videoCapture.release();
+            queueOfFrames.offer(END_OF_STREAM);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        decodeThread.interrupt();
+        try {
+            decodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
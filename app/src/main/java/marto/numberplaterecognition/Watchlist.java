@@ -0,0 +1,234 @@
+package marto.numberplaterecognition;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// In-memory hotlist of plates with a Bloom filter in front of a sorted array of packed plates
+class Watchlist {
+    // Plates are packed base 37 into a long, which holds up to 12 chars
+    private static final int MAX_PLATE_LENGTH = 12;
+    private static final int RADIX = 37;
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final int BLOOM_BITS_PER_PLATE = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    // Typical OCR confusions, tried before any other single edit
+    private static final String[] CONFUSIONS = {"0ODQ", "8B", "1I7L", "5S", "2Z", "6G", "4A"};
+
+    private static final long[] POWERS = new long[MAX_PLATE_LENGTH + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++)
+            POWERS[i] = POWERS[i - 1] * RADIX;
+    }
+
+    private final long[] plates;
+    private final long[] bloomBits;
+    private final int intBloomSize;
+
+    private Watchlist(long[] plates) {
+        this.plates = plates;
+
+        intBloomSize = Math.max(64, plates.length * BLOOM_BITS_PER_PLATE);
+        bloomBits = new long[(intBloomSize + 63) / 64];
+        for (long plate : plates)
+            addToBloom(plate);
+    }
+
+    static Watchlist of(List<String> listOfPlates) {
+        long[] packed = new long[listOfPlates.size()];
+        int intCount = 0;
+        for (String strPlate : listOfPlates) {
+            long lngPacked = pack(normalize(strPlate));
+            if (lngPacked > 0)
+                packed[intCount++] = lngPacked;
+        }
+        return new Watchlist(sortedUnique(packed, intCount));
+    }
+
+    // Plate text in the given column of each line, lines without a valid plate are skipped.
+    // A header has to be declared, a column name like "plate" would pass as a plate.
+    static Watchlist loadCsv(Reader reader, int intColumn, boolean hasHeader) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        long[] packed = new long[1024];
+        int intCount = 0;
+
+        if (hasHeader)
+            bufferedReader.readLine();
+        String line = bufferedReader.readLine();
+        while (line != null) {
+            String[] fields = line.split(",", -1);
+            if (intColumn < fields.length) {
+                long lngPacked = pack(normalize(fields[intColumn]));
+                if (lngPacked > 0) {
+                    if (intCount == packed.length)
+                        packed = Arrays.copyOf(packed, packed.length * 2);
+                    packed[intCount++] = lngPacked;
+                }
+            }
+            line = bufferedReader.readLine();
+        }
+
+        return new Watchlist(sortedUnique(packed, intCount));
+    }
+
+    int size() {
+        return plates.length;
+    }
+
+    boolean contains(String strPlate) {
+        return containsPacked(pack(normalize(strPlate)));
+    }
+
+    // Exact match if there is one, otherwise all plates one edit away, OCR confusions first
+    List<String> lookup(String strPlate) {
+        List<String> listOfMatches = new ArrayList<>();
+        String strNormalized = normalize(strPlate);
+        int intLength = strNormalized.length();
+        if (intLength == 0 || intLength > MAX_PLATE_LENGTH)
+            return listOfMatches;
+
+        long lngPacked = pack(strNormalized);
+        if (containsPacked(lngPacked)) {
+            listOfMatches.add(strNormalized);
+            return listOfMatches;
+        }
+
+        // Candidates are built arithmetically on the packed value, only matches become strings
+        int[] digits = new int[intLength];
+        long[] prefixes = new long[intLength + 1];
+        long[] suffixes = new long[intLength + 1];
+        for (int i = 0; i < intLength; i++) {
+            digits[i] = ALPHABET.indexOf(strNormalized.charAt(i)) + 1;
+            prefixes[i + 1] = prefixes[i] * RADIX + digits[i];
+        }
+        for (int i = intLength - 1; i >= 0; i--)
+            suffixes[i] = digits[i] * POWERS[intLength - 1 - i] + suffixes[i + 1];
+
+        // Substitutions of confusable chars
+        for (int i = 0; i < intLength; i++) {
+            for (String strGroup : CONFUSIONS) {
+                if (strGroup.indexOf(ALPHABET.charAt(digits[i] - 1)) < 0)
+                    continue;
+                for (int j = 0; j < strGroup.length(); j++) {
+                    int intDigit = ALPHABET.indexOf(strGroup.charAt(j)) + 1;
+                    addIfContained(listOfMatches, lngPacked + (intDigit - digits[i]) * POWERS[intLength - 1 - i]);
+                }
+            }
+        }
+
+        // Any other substitution
+        for (int i = 0; i < intLength; i++) {
+            for (int intDigit = 1; intDigit < RADIX; intDigit++)
+                addIfContained(listOfMatches, lngPacked + (intDigit - digits[i]) * POWERS[intLength - 1 - i]);
+        }
+
+        // Deletions, a split or noise contour read as an extra char
+        if (intLength > 1) {
+            for (int i = 0; i < intLength; i++)
+                addIfContained(listOfMatches, prefixes[i] * POWERS[intLength - 1 - i] + suffixes[i + 1]);
+        }
+
+        // Insertions, a char missed by segmentation
+        if (intLength < MAX_PLATE_LENGTH) {
+            for (int i = 0; i <= intLength; i++) {
+                for (int intDigit = 1; intDigit < RADIX; intDigit++)
+                    addIfContained(listOfMatches, (prefixes[i] * RADIX + intDigit) * POWERS[intLength - i] + suffixes[i]);
+            }
+        }
+
+        return listOfMatches;
+    }
+
+    private void addIfContained(List<String> listOfMatches, long lngCandidate) {
+        if (containsPacked(lngCandidate)) {
+            String strCandidate = unpack(lngCandidate);
+            if (!listOfMatches.contains(strCandidate))
+                listOfMatches.add(strCandidate);
+        }
+    }
+
+    private boolean containsPacked(long lngPacked) {
+        return lngPacked > 0 && mightContain(lngPacked) && Arrays.binarySearch(plates, lngPacked) >= 0;
+    }
+
+    private void addToBloom(long lngPacked) {
+        long lngHash1 = mix(lngPacked);
+        long lngHash2 = mix(lngHash1) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int intBit = (int) (((lngHash1 + i * lngHash2) >>> 1) % intBloomSize);
+            bloomBits[intBit >>> 6] |= 1L << intBit;
+        }
+    }
+
+    private boolean mightContain(long lngPacked) {
+        long lngHash1 = mix(lngPacked);
+        long lngHash2 = mix(lngHash1) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int intBit = (int) (((lngHash1 + i * lngHash2) >>> 1) % intBloomSize);
+            if ((bloomBits[intBit >>> 6] & (1L << intBit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long lngValue) {
+        lngValue = (lngValue ^ (lngValue >>> 30)) * 0xbf58476d1ce4e5b9L;
+        lngValue = (lngValue ^ (lngValue >>> 27)) * 0x94d049bb133111ebL;
+        return lngValue ^ (lngValue >>> 31);
+    }
+
+    // Upper case letters and digits only, separators and spaces dropped
+    static String normalize(String strPlate) {
+        StringBuilder strNormalized = new StringBuilder(strPlate.length());
+        for (int i = 0; i < strPlate.length(); i++) {
+            char chr = Character.toUpperCase(strPlate.charAt(i));
+            if (ALPHABET.indexOf(chr) >= 0)
+                strNormalized.append(chr);
+        }
+        return strNormalized.toString();
+    }
+
+    // 0 for plates that can't be packed
+    private static long pack(String strNormalized) {
+        if (strNormalized.isEmpty() || strNormalized.length() > MAX_PLATE_LENGTH)
+            return 0;
+
+        long lngPacked = 0;
+        for (int i = 0; i < strNormalized.length(); i++) {
+            int intDigit = ALPHABET.indexOf(strNormalized.charAt(i));
+            if (intDigit < 0)
+                return 0;
+            lngPacked = lngPacked * RADIX + intDigit + 1;
+        }
+        return lngPacked;
+    }
+
+    private static String unpack(long lngPacked) {
+        StringBuilder strPlate = new StringBuilder();
+        while (lngPacked > 0) {
+            strPlate.append(ALPHABET.charAt((int) (lngPacked % RADIX) - 1));
+            lngPacked /= RADIX;
+        }
+        return strPlate.reverse().toString();
+    }
+
+    private static long[] sortedUnique(long[] packed, int intCount) {
+        long[] sorted = Arrays.copyOf(packed, intCount);
+        Arrays.sort(sorted);
+
+        int intUnique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                sorted[intUnique++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, intUnique);
+    }
+}
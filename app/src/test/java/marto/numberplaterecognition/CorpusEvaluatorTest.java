@@ -0,0 +1,31 @@
+package marto.numberplaterecognition;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CorpusEvaluatorTest {
+
+    @Test
+    public void editDistance_equalAndEmpty() {
+        assertEquals(0, CorpusEvaluator.editDistance("", ""));
+        assertEquals(0, CorpusEvaluator.editDistance("AB12CDE", "AB12CDE"));
+        assertEquals(7, CorpusEvaluator.editDistance("", "AB12CDE"));
+        assertEquals(7, CorpusEvaluator.editDistance("AB12CDE", ""));
+    }
+
+    @Test
+    public void editDistance_singleEdits() {
+        assertEquals(1, CorpusEvaluator.editDistance("AB12CDE", "A812CDE"));
+        assertEquals(1, CorpusEvaluator.editDistance("AB12CDE", "AB12CD"));
+        assertEquals(1, CorpusEvaluator.editDistance("AB12CDE", "AB112CDE"));
+    }
+
+    @Test
+    public void editDistance_symmetric() {
+        assertEquals(3, CorpusEvaluator.editDistance("KITTEN", "SITTING"));
+        assertEquals(3, CorpusEvaluator.editDistance("SITTING", "KITTEN"));
+        // a swap of neighbours is two edits
+        assertEquals(2, CorpusEvaluator.editDistance("AB12", "BA12"));
+    }
+}
@@ -0,0 +1,168 @@
+package marto.numberplaterecognition;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DetectionLogTest {
+    // the smallest segment the log accepts, a few hundred records each
+    private static final int SEGMENT_SIZE = 64 * 1024 + 8;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("detections", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    private static DetectionEvent event(long lngSequence) {
+        return new DetectionEvent(lngSequence, "camera-" + (lngSequence % 3), "AB" + lngSequence,
+                new float[]{0.9f, 0.8f, 0.7f}, new RotatedRect(new Point(10, 20), new Size(100, 30), 5),
+                new long[]{lngSequence * 10, lngSequence * 20});
+    }
+
+    private static void append(DetectionLog detectionLog, long lngSequence) throws InterruptedException {
+        // the queue drops events when full, retry until the writer catches up
+        while (!detectionLog.append(event(lngSequence)))
+            Thread.sleep(1);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DetectionLog detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 100);
+        for (long i = 0; i < 3; i++)
+            append(detectionLog, i);
+        detectionLog.close();
+        assertEquals(3, detectionLog.getWritten());
+
+        DetectionLog.Reader reader = new DetectionLog.Reader(directory, SEGMENT_SIZE);
+        for (long i = 0; i < 3; i++) {
+            DetectionEvent expected = event(i);
+            DetectionEvent read = reader.poll();
+            assertNotNull(read);
+            assertEquals(expected.getTimestampMillis(), read.getTimestampMillis());
+            assertEquals(expected.getSourceId(), read.getSourceId());
+            assertEquals(expected.getPlate(), read.getPlate());
+            assertArrayEquals(expected.getCharConfidences(), read.getCharConfidences(), 0f);
+            assertEquals(expected.getRrLocationOfPlateInScene().center, read.getRrLocationOfPlateInScene().center);
+            assertEquals(expected.getRrLocationOfPlateInScene().size, read.getRrLocationOfPlateInScene().size);
+            assertEquals(expected.getRrLocationOfPlateInScene().angle, read.getRrLocationOfPlateInScene().angle, 0.0);
+            assertArrayEquals(expected.getStageNanos(), read.getStageNanos());
+        }
+        assertNull(reader.poll());
+        reader.close();
+    }
+
+    @Test
+    public void readsAcrossSegments() throws Exception {
+        DetectionLog detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 100);
+        for (long i = 0; i < 3000; i++)
+            append(detectionLog, i);
+        detectionLog.close();
+        assertTrue(DetectionLog.listSegments(directory).size() > 1);
+
+        DetectionLog.Reader reader = new DetectionLog.Reader(directory, SEGMENT_SIZE);
+        for (long i = 0; i < 3000; i++)
+            assertEquals(i, reader.poll().getTimestampMillis());
+        assertNull(reader.poll());
+        reader.close();
+    }
+
+    @Test
+    public void continuesAfterReopen() throws Exception {
+        DetectionLog detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 100);
+        append(detectionLog, 0);
+        detectionLog.close();
+        detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 100);
+        append(detectionLog, 1);
+        detectionLog.close();
+
+        DetectionLog.Reader reader = new DetectionLog.Reader(directory, SEGMENT_SIZE);
+        assertEquals(0, reader.poll().getTimestampMillis());
+        assertEquals(1, reader.poll().getTimestampMillis());
+        assertNull(reader.poll());
+        reader.close();
+    }
+
+    @Test
+    public void retentionDeletesOldestSegments() throws Exception {
+        DetectionLog detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 2);
+        for (long i = 0; i < 3000; i++)
+            append(detectionLog, i);
+        detectionLog.close();
+        assertEquals(2, DetectionLog.listSegments(directory).size());
+
+        // the reader starts at the oldest segment left and still sees the newest record
+        DetectionLog.Reader reader = new DetectionLog.Reader(directory, SEGMENT_SIZE);
+        long lngLast = -1;
+        DetectionEvent event = reader.poll();
+        while (event != null) {
+            assertTrue(event.getTimestampMillis() > lngLast);
+            lngLast = event.getTimestampMillis();
+            event = reader.poll();
+        }
+        assertEquals(2999, lngLast);
+        reader.close();
+    }
+
+    @Test(timeout = 30000)
+    public void tailingReaderSeesEveryRecord() throws Exception {
+        final int intEvents = 20000;
+        final DetectionLog detectionLog = new DetectionLog(directory, SEGMENT_SIZE, 1000);
+        final List<Exception> listOfErrors = new ArrayList<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long i = 0; i < intEvents; i++)
+                        append(detectionLog, i);
+                } catch (InterruptedException e) {
+                    listOfErrors.add(e);
+                }
+            }
+        });
+        producer.start();
+
+        // reads while the writer fills and rolls over segments, records must come in order without gaps
+        DetectionLog.Reader reader = new DetectionLog.Reader(directory, SEGMENT_SIZE);
+        long lngNext = 0;
+        while (lngNext < intEvents) {
+            DetectionEvent event = reader.poll();
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(lngNext, event.getTimestampMillis());
+            lngNext++;
+        }
+        assertNull(reader.poll());
+        reader.close();
+
+        producer.join();
+        detectionLog.close();
+        assertTrue(listOfErrors.isEmpty());
+        assertEquals(intEvents, detectionLog.getWritten());
+    }
+}
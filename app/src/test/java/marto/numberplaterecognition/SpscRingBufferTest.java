@@ -0,0 +1,105 @@
+package marto.numberplaterecognition;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void capacity_roundedUpToPowerOfTwo() {
+        assertEquals(1, new SpscRingBuffer<Integer>(1).getCapacity());
+        assertEquals(8, new SpscRingBuffer<Integer>(5).getCapacity());
+        assertEquals(16, new SpscRingBuffer<Integer>(16).getCapacity());
+    }
+
+    @Test
+    public void firstInFirstOut() throws InterruptedException {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+        for (int intRound = 0; intRound < 3; intRound++) {
+            for (int i = 0; i < 4; i++)
+                ring.put(intRound * 4 + i);
+            assertEquals(4, ring.getDepth());
+            for (int i = 0; i < 4; i++)
+                assertEquals(Integer.valueOf(intRound * 4 + i), ring.take());
+            assertEquals(0, ring.getDepth());
+        }
+        assertEquals(4, ring.getMaxDepth());
+        assertEquals(2.5, ring.getMeanDepth(), 1e-9);
+        assertEquals(0, ring.getFullWaits());
+    }
+
+    @Test(timeout = 10000)
+    public void fullRingMakesProducerWait() throws InterruptedException {
+        final SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(2);
+        ring.put(0);
+        ring.put(1);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ring.put(2);
+                } catch (InterruptedException e) {
+                    // fails the test below, 2 never arrives
+                }
+            }
+        });
+        producer.start();
+        while (ring.getFullWaits() == 0)
+            Thread.yield();
+        assertEquals(2, ring.getDepth());
+
+        assertEquals(Integer.valueOf(0), ring.take());
+        producer.join();
+        assertEquals(Integer.valueOf(1), ring.take());
+        assertEquals(Integer.valueOf(2), ring.take());
+    }
+
+    @Test(timeout = 10000)
+    public void takeFromEmptyRingIsInterruptible() throws InterruptedException {
+        final SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(2);
+        final List<Throwable> listOfThrown = new ArrayList<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ring.take();
+                } catch (InterruptedException e) {
+                    listOfThrown.add(e);
+                }
+            }
+        });
+        consumer.start();
+        consumer.interrupt();
+        consumer.join();
+        assertEquals(1, listOfThrown.size());
+    }
+
+    @Test(timeout = 30000)
+    public void producerAndConsumerThreads() throws InterruptedException {
+        final int intItems = 200000;
+        final SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < intItems; i++)
+                        ring.put(i);
+                } catch (InterruptedException e) {
+                    // fails the test below, the consumer misses items
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < intItems; i++)
+            assertEquals(Integer.valueOf(i), ring.take());
+        producer.join();
+        assertEquals(0, ring.getDepth());
+        assertTrue(ring.getMaxDepth() <= ring.getCapacity());
+    }
+}
@@ -0,0 +1,69 @@
+package marto.numberplaterecognition;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class WatchlistTest {
+    private final Watchlist watchlist = Watchlist.of(Arrays.asList("AB12CDE", "xy-99 zz", "123456"));
+
+    @Test
+    public void contains_ignoresCaseAndSeparators() {
+        assertEquals(3, watchlist.size());
+        assertTrue(watchlist.contains("ab 12 cde"));
+        assertTrue(watchlist.contains("XY99ZZ"));
+        assertFalse(watchlist.contains("AB12CDF"));
+        assertFalse(watchlist.contains(""));
+    }
+
+    @Test
+    public void of_dropsDuplicatesAndInvalidPlates() {
+        Watchlist duplicates = Watchlist.of(Arrays.asList("AB12CDE", "ab-12-cde", "", "--", "ABCDEFGHIJKLM"));
+        assertEquals(1, duplicates.size());
+    }
+
+    @Test
+    public void lookup_exactMatchOnly() {
+        assertEquals(Collections.singletonList("AB12CDE"), watchlist.lookup("AB12CDE"));
+    }
+
+    @Test
+    public void lookup_ocrConfusion() {
+        assertEquals(Collections.singletonList("AB12CDE"), watchlist.lookup("A812CDE"));
+        assertEquals(Collections.singletonList("XY99ZZ"), watchlist.lookup("XY99Z2"));
+    }
+
+    @Test
+    public void lookup_deletionAndInsertion() {
+        assertEquals(Collections.singletonList("AB12CDE"), watchlist.lookup("AB12CDEE"));
+        assertEquals(Collections.singletonList("AB12CDE"), watchlist.lookup("AB1CDE"));
+        assertEquals(Collections.singletonList("123456"), watchlist.lookup("1234567"));
+    }
+
+    @Test
+    public void lookup_noMatchTwoEditsAway() {
+        assertTrue(watchlist.lookup("AB12XYE").isEmpty());
+        assertTrue(watchlist.lookup("").isEmpty());
+        assertTrue(watchlist.lookup("ABCDEFGHIJKLM").isEmpty());
+    }
+
+    @Test
+    public void loadCsv_skipsHeader() throws IOException {
+        Watchlist loaded = Watchlist.loadCsv(new StringReader("plate,owner\nAB12CDE,fleet\nXY99ZZ,fleet\n"), 0, true);
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.contains("PLATE"));
+        assertTrue(loaded.contains("AB12CDE"));
+    }
+
+    @Test
+    public void loadCsv_column() throws IOException {
+        Watchlist loaded = Watchlist.loadCsv(new StringReader("1,AB12CDE\n2,\n3\n4,XY99ZZ"), 1, false);
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.contains("XY99ZZ"));
+    }
+}